@@ -0,0 +1,104 @@
+package jwtauth;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.Status;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import orders.OrdersGrpc;
+
+/**
+ * Cost of authenticating a call, with the verified tokens cache and without it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JwtServerInterceptorBenchmark {
+    @Param({ "true", "false" })
+    boolean cached;
+
+    private JwtServerInterceptor interceptor;
+    private Metadata metadata;
+    private final ServerCall<Object, Object> call = new NoopServerCall();
+    private final ServerCallHandler<Object, Object> handler = (c, m) -> new ServerCall.Listener<Object>() {
+    };
+
+    @Setup
+    public void setup() {
+        interceptor = new JwtServerInterceptor(cached ? 1000 : 0, 600, TimeUnit.SECONDS);
+
+        String token = Jwts.builder()
+                .setSubject("1")
+                .setIssuer(Constant.JWT_ISSUER)
+                .setAudience(Constant.JWT_AUDIENCE)
+                .claim(Constant.CLAIM_MS_ROLE, List.of("GetOrders", "2/GetOrder", "3/GetOrder", "4/Admin"))
+                .signWith(SignatureAlgorithm.HS256, Constant.JWT_SIGNING_KEY.getBytes(StandardCharsets.UTF_8))
+                .compact();
+        metadata = new Metadata();
+        metadata.put(Constant.AUTHORIZATION_METADATA_KEY, Constant.BEARER_TYPE + " " + token);
+    }
+
+    @Benchmark
+    public ServerCall.Listener<Object> interceptCall() {
+        return interceptor.interceptCall(call, metadata, handler);
+    }
+
+    @Benchmark
+    public AuthInfo parseRoles() {
+        return new AuthInfo(1, new String[] { "GetOrders", "2/GetOrder", "3/GetOrder", "4/Admin" });
+    }
+
+    private static final class NoopServerCall extends ServerCall<Object, Object> {
+        @SuppressWarnings("unchecked")
+        private final MethodDescriptor<Object, Object> method = (MethodDescriptor<Object, Object>) (MethodDescriptor<?, ?>) OrdersGrpc
+                .getGetMethod();
+
+        @Override
+        public void request(int numMessages) {
+        }
+
+        @Override
+        public void sendHeaders(Metadata headers) {
+        }
+
+        @Override
+        public void sendMessage(Object message) {
+        }
+
+        @Override
+        public void close(Status status, Metadata trailers) {
+            throw new IllegalStateException(status.toString());
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public MethodDescriptor<Object, Object> getMethodDescriptor() {
+            return method;
+        }
+    }
+}
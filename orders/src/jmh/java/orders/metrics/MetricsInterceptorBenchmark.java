@@ -0,0 +1,90 @@
+package orders.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.Status;
+import orders.OrdersGrpc;
+
+/**
+ * Overhead of recording a call: start, close and the listener wrapper,
+ * compared to a call without the interceptor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsInterceptorBenchmark {
+    private final MetricsInterceptor interceptor = new MetricsInterceptor();
+    private final ServerCall<Object, Object> call = new NoopServerCall();
+    private final Metadata metadata = new Metadata();
+    private final ServerCallHandler<Object, Object> handler = (c, m) -> {
+        c.close(Status.OK, m);
+        return new ServerCall.Listener<Object>() {
+        };
+    };
+
+    @Benchmark
+    public ServerCall.Listener<Object> baseline() {
+        return handler.startCall(call, metadata);
+    }
+
+    @Benchmark
+    public ServerCall.Listener<Object> instrumented() {
+        return interceptor.interceptCall(call, metadata, handler);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public ServerCall.Listener<Object> instrumentedContended() {
+        return interceptor.interceptCall(call, metadata, handler);
+    }
+
+    private static final class NoopServerCall extends ServerCall<Object, Object> {
+        @SuppressWarnings("unchecked")
+        private final MethodDescriptor<Object, Object> method = (MethodDescriptor<Object, Object>) (MethodDescriptor<?, ?>) OrdersGrpc
+                .getGetMethod();
+
+        @Override
+        public void request(int numMessages) {
+        }
+
+        @Override
+        public void sendHeaders(Metadata headers) {
+        }
+
+        @Override
+        public void sendMessage(Object message) {
+        }
+
+        @Override
+        public void close(Status status, Metadata trailers) {
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public MethodDescriptor<Object, Object> getMethodDescriptor() {
+            return method;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package orders.service;
+
+import java.lang.reflect.Field;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import orders.OrderListReply;
+import orders.OrderListReplyV2;
+import orders.hibernate.model.Address;
+import orders.hibernate.model.Order;
+import orders.hibernate.model.Product;
+
+/**
+ * Building and serializing a page of List replies, OrderReply against
+ * OrderReplyV2. Sizes per order are printed on setup, allocation per page is
+ * reported by the gc profiler as gc.alloc.rate.norm.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrderReplyBenchmark {
+    @Param({ "100" })
+    int orders;
+
+    private final List<Order> page = new ArrayList<>();
+
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        Set<Product> products = new HashSet<>();
+        for (int i = 1; i <= 3; ++i) {
+            Product product = new Product();
+            product.setId(i);
+            product.setName("Product " + i);
+            product.setDescription("Description of product " + i);
+            products.add(product);
+        }
+
+        // ids are generated, there is no setter
+        Field id = Order.class.getDeclaredField("id");
+        id.setAccessible(true);
+        Instant now = Instant.now();
+        for (int i = 0; i < orders; ++i) {
+            Address address = new Address();
+            address.setId(1000 + i);
+            address.setStreet("1600 Amphitheatre Parkway");
+            address.setZipCode("94043");
+            address.setCountryCode("US");
+
+            Order order = new Order();
+            id.set(order, 1000L + i);
+            order.setUser(2);
+            order.setCreatedBy(1);
+            order.setCreatedAt(now.minusSeconds(i));
+            // half of orders have been updated
+            if (i % 2 == 0) {
+                order.setUpdatedBy(1);
+                order.setUpdatedAt(now);
+            }
+            order.setCustomer("Customer " + i);
+            order.setComment("Comment");
+            order.setAddress(address);
+            order.setProducts(products);
+            page.add(order);
+        }
+
+        System.out.printf("%nOrderReply %d bytes, OrderReplyV2 %d bytes per order%n",
+                v1().length / orders, v2().length / orders);
+    }
+
+    @Benchmark
+    public byte[] v1() {
+        OrderListReply.Builder reply = OrderListReply.newBuilder().setCount(orders);
+        page.forEach(o -> reply.addOrdersList(OrdersImpl.getOrderReplyFromOrder(o)));
+        return reply.build().toByteArray();
+    }
+
+    @Benchmark
+    public byte[] v2() {
+        OrderListReplyV2.Builder reply = OrderListReplyV2.newBuilder().setCount(orders);
+        page.forEach(o -> reply.addOrders(OrdersImpl.getOrderReplyV2FromOrder(o)));
+        return reply.build().toByteArray();
+    }
+}
@@ -0,0 +1,124 @@
+package orders.service;
+
+import java.lang.reflect.Field;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.grpc.Context;
+import io.grpc.stub.StreamObserver;
+import jwtauth.AuthInfo;
+import jwtauth.Constant;
+import jwtauth.UserIds;
+import orders.OrderReply;
+import orders.hibernate.model.Address;
+import orders.hibernate.model.Order;
+import orders.hibernate.model.Product;
+
+/**
+ * Authorization checks and conversion of orders to replies, both done for
+ * every order served.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrdersImplBenchmark {
+    private Context previous;
+    private final StreamObserver<Object> observer = new StreamObserver<>() {
+        @Override
+        public void onNext(Object value) {
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            throw new IllegalStateException(t);
+        }
+
+        @Override
+        public void onCompleted() {
+        }
+    };
+
+    /**
+     * An order with the number of products given.
+     */
+    @State(Scope.Thread)
+    public static class OrderState {
+        @Param({ "1", "10", "100" })
+        int products;
+
+        Order order;
+
+        @Setup
+        public void setup() throws ReflectiveOperationException {
+            Address address = new Address();
+            address.setId(1);
+            address.setStreet("1600 Amphitheatre Parkway");
+            address.setZipCode("94043");
+            address.setCountryCode("US");
+
+            Set<Product> orderProducts = new HashSet<>();
+            for (int i = 1; i <= products; ++i) {
+                Product product = new Product();
+                product.setId(i);
+                product.setName("Product " + i);
+                product.setDescription("Description of product " + i);
+                orderProducts.add(product);
+            }
+
+            order = new Order();
+            // ids are generated, there is no setter
+            Field id = Order.class.getDeclaredField("id");
+            id.setAccessible(true);
+            id.set(order, 1L);
+            order.setUser(2);
+            order.setCreatedBy(1);
+            order.setCreatedAt(Instant.now());
+            order.setUpdatedBy(1);
+            order.setUpdatedAt(Instant.now());
+            order.setCustomer("Customer");
+            order.setComment("Comment");
+            order.setAddress(address);
+            order.setProducts(orderProducts);
+        }
+    }
+
+    @Setup
+    public void setup() {
+        AuthInfo info = new AuthInfo(1, new String[] { "GetOrders", "2/GetOrder", "3/GetOrder", "4/Admin" });
+        previous = Context.current().withValue(Constant.CLIENT_CONTEXT_KEY, info).attach();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Context.current().detach(previous);
+    }
+
+    @Benchmark
+    public UserIds authorizeRequest() {
+        return OrdersImpl.authorizeRequest("GetOrder", observer);
+    }
+
+    @Benchmark
+    public OrderReply getOrderReplyFromOrder(OrderState state) {
+        return OrdersImpl.getOrderReplyFromOrder(state.order);
+    }
+}
@@ -0,0 +1,133 @@
+package orders.service;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.Session;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import orders.hibernate.HibernateUtil;
+
+/**
+ * Queries of Orders.List, the first page, a page after a token and the total,
+ * against the H2 in-memory database seeded with the number of orders given,
+ * with and without the index on (user_id, id). Plans of the queries are
+ * printed on setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class OrdersListBenchmark {
+    private static final int USERS = 1000;
+    private static final int PAGE = 100;
+
+    // Queries of OrdersImpl.list
+    private static final String PAGE_QUERY = "select id from Order where user in (:user)"
+            + " and deletedBy is null and deletedAt is null order by id desc";
+    private static final String NEXT_PAGE_QUERY = "select id from Order where user in (:user) and id < :last"
+            + " and deletedBy is null and deletedAt is null order by id desc";
+    private static final String COUNT_QUERY = "Select count(o.id) from Order o where user in (:user)"
+            + " and deletedBy is null and deletedAt is null";
+
+    @Param({ "1000000" })
+    int orders;
+
+    @Param({ "false", "true" })
+    boolean indexed;
+
+    private Session session;
+    private long last;
+    // H2 reuses the result of a query repeated with the same parameters
+    private int user;
+
+    @Setup
+    public void setup() {
+        // a page from the middle of orders of the user
+        last = orders / 2;
+        session = HibernateUtil.getSession();
+        session.doWork(c -> {
+            try (Statement s = c.createStatement()) {
+                s.executeUpdate("insert into addresses (id, street, zipCode, countryCode)"
+                        + " select x, 'Street ' || x, '12345', 'US' from system_range(1, " + orders + ")");
+                // 5% of orders of every user are deleted
+                s.executeUpdate("insert into orders (id, user_id, createdBy, customer, createdAt, version, address_id,"
+                        + " deletedBy, deletedAt)"
+                        + " select x, mod(x, " + USERS + "), 1, 'Customer ' || x, current_timestamp, 0, x,"
+                        + " case when mod(x / " + USERS + ", 20) = 0 then 1 end,"
+                        + " case when mod(x / " + USERS + ", 20) = 0 then current_timestamp end"
+                        + " from system_range(1, " + orders + ")");
+                s.executeUpdate("insert into orders_products (orders_id, products_id)"
+                        + " select x, 1 + mod(x, 5) from system_range(1, " + orders + ")");
+                if (!indexed) {
+                    s.executeUpdate("drop index orders_user_id_idx");
+                }
+                s.execute("analyze");
+
+                String where = " from orders where user_id in (7)"
+                        + " and deletedBy is null and deletedAt is null";
+                explain(s, "select id" + where + " order by id desc limit " + PAGE);
+                explain(s, "select id" + where + " and id < " + last + " order by id desc limit " + PAGE);
+                explain(s, "select count(id)" + where);
+            }
+        });
+    }
+
+    private static void explain(Statement s, String sql) throws SQLException {
+        try (ResultSet rs = s.executeQuery("explain " + sql)) {
+            rs.next();
+            System.out.printf("%n%s%n", rs.getString(1));
+        }
+    }
+
+    private List<Integer> nextUser() {
+        user = (user + 1) % USERS;
+        return List.of(user);
+    }
+
+    @TearDown
+    public void tearDown() {
+        session.close();
+        HibernateUtil.close();
+    }
+
+    @Benchmark
+    public List<Long> page() {
+        return session.createQuery(PAGE_QUERY, Long.class)
+                .setParameter("user", nextUser())
+                .setMaxResults(PAGE)
+                .list();
+    }
+
+    @Benchmark
+    public List<Long> nextPage() {
+        return session.createQuery(NEXT_PAGE_QUERY, Long.class)
+                .setParameter("user", nextUser())
+                .setParameter("last", last)
+                .setMaxResults(PAGE)
+                .list();
+    }
+
+    @Benchmark
+    public long count() {
+        return session.createQuery(COUNT_QUERY, Long.class)
+                .setParameter("user", nextUser())
+                .getSingleResult();
+    }
+}
@@ -0,0 +1,92 @@
+package orders.service;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.Session;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.protobuf.Empty;
+
+import io.grpc.stub.StreamObserver;
+import orders.ProductListReply;
+import orders.hibernate.HibernateUtil;
+import orders.hibernate.model.Product;
+
+/**
+ * Products.List served from the catalog and the catalog reload, against the
+ * H2 in-memory database seeded with the number of products given.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProductsImplBenchmark {
+    @Param({ "100", "1000" })
+    int rows;
+
+    private ProductCatalog catalog;
+    private ProductsImpl products;
+
+    private final StreamObserver<ProductListReply> observer = new StreamObserver<>() {
+        @Override
+        public void onNext(ProductListReply value) {
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            throw new IllegalStateException(t);
+        }
+
+        @Override
+        public void onCompleted() {
+        }
+    };
+
+    @Setup
+    public void setup() {
+        try (Session session = HibernateUtil.getSession()) {
+            session.beginTransaction();
+            long count = session.createQuery("select count(*) from Product", Long.class).getSingleResult();
+            for (long i = count; i < rows; ++i) {
+                Product product = new Product();
+                product.setName("Product " + i);
+                product.setDescription("Description of product " + i);
+                session.persist(product);
+            }
+            session.getTransaction().commit();
+        }
+
+        catalog = new ProductCatalog();
+        catalog.refresh();
+        products = new ProductsImpl(catalog);
+    }
+
+    @TearDown
+    public void tearDown() {
+        catalog.close();
+        HibernateUtil.close();
+    }
+
+    @Benchmark
+    public void list() {
+        products.list(Empty.getDefaultInstance(), observer);
+    }
+
+    @Benchmark
+    public ProductCatalog.Snapshot refresh() {
+        return catalog.refresh();
+    }
+}
@@ -1,6 +1,86 @@
 package jwtauth;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Client identity obtained from the token.
+ * Roles granted as "userId/Role" claims (or "Role" for the client itself) are
+ * indexed once, so authorization checks are plain lookups.
+ */
 public class AuthInfo {
-    public Integer clientId;
-    public String[] clientRoles;
-}
\ No newline at end of file
+    public static final String ADMIN_ROLE = "Admin";
+
+    public final Integer clientId;
+    public final String[] clientRoles;
+
+    private final UserIds adminUsers;
+    private final Map<String, UserIds> authorizedUsers;
+
+    public AuthInfo(int clientId, String[] clientRoles) {
+        this.clientId = clientId;
+        this.clientRoles = clientRoles;
+
+        Map<String, Grants> grants = new HashMap<>();
+        for (String s : clientRoles) {
+            String role = s;
+            int user = clientId;
+
+            int slash = s.indexOf('/');
+            if (slash >= 0 && slash < s.length() - 1 && s.indexOf('/', slash + 1) < 0) {
+                try {
+                    user = Integer.parseInt(s, 0, slash, 10);
+                } catch (NumberFormatException e) {
+                    // Ignore this role
+                    continue;
+                }
+                role = s.substring(slash + 1);
+            }
+
+            grants.computeIfAbsent(role, r -> new Grants()).add(user);
+        }
+
+        Grants adminGrants = grants.get(ADMIN_ROLE);
+        UserIds admins = null != adminGrants ? adminGrants.toUserIds() : UserIds.EMPTY;
+
+        Map<String, UserIds> authorized = new HashMap<>();
+        grants.forEach((role, g) -> authorized.put(role, g.toUserIds().union(admins)));
+
+        this.adminUsers = admins;
+        this.authorizedUsers = authorized.isEmpty() ? Collections.emptyMap() : authorized;
+    }
+
+    /**
+     * Returns users the client acts for in the role given, including users
+     * the client administers.
+     */
+    public UserIds getAuthorizedUsers(String role) {
+        return authorizedUsers.getOrDefault(role, adminUsers);
+    }
+
+    /**
+     * Returns names of the roles granted, for any user.
+     */
+    public Set<String> getRoles() {
+        return Collections.unmodifiableSet(authorizedUsers.keySet());
+    }
+
+    private static final class Grants {
+        int[] ids = new int[4];
+        int count;
+
+        void add(int id) {
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+            }
+            ids[count++] = id;
+        }
+
+        UserIds toUserIds() {
+            return UserIds.of(ids, count);
+        }
+    }
+}
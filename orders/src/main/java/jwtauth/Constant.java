@@ -12,6 +12,8 @@ public final class Constant {
     static final String JWT_SIGNING_KEY = "1234567890abcdef1234567890abcdef1234567890abcdef1234567890abcdef";
     static final String BEARER_TYPE = "Bearer";
     static final String CLAIM_MS_ROLE = "http://schemas.microsoft.com/ws/2008/06/identity/claims/role";
+    static final String JWT_ISSUER = "https://github.com/vyatkin0/micro-services";
+    static final String JWT_AUDIENCE = "https://github.com/vyatkin0/micro-services";
 
     static final Metadata.Key<String> AUTHORIZATION_METADATA_KEY = Metadata.Key.of("Authorization", ASCII_STRING_MARSHALLER);
     public static final Context.Key<AuthInfo> CLIENT_CONTEXT_KEY = Context.key("client");
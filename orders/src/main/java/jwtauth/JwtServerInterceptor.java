@@ -1,7 +1,15 @@
 package jwtauth;
 
-import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 
 import io.grpc.Context;
 import io.grpc.Contexts;
@@ -11,7 +19,6 @@ import io.grpc.ServerCallHandler;
 import io.grpc.ServerInterceptor;
 import io.grpc.Status;
 import io.jsonwebtoken.Claims;
-import io.jsonwebtoken.Jws;
 import io.jsonwebtoken.JwtException;
 import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
@@ -24,8 +31,52 @@ import io.jsonwebtoken.Jwts;
  * checks (expiration date, issuer and etc.), it relies only on the signature of
  * the token for
  * verification.
+ *
+ * Verified tokens are kept in a bounded cache keyed by the SHA-256 digest of the
+ * token, so a client reusing the same bearer token skips signature verification
+ * and claims parsing until the token expires.
  */
 public class JwtServerInterceptor implements ServerInterceptor {
+  static final long DEFAULT_CACHE_SIZE = 10_000;
+  static final long DEFAULT_CACHE_TTL_SECONDS = 600;
+
+  private final JwtParser parser = Jwts.parser()
+      .setSigningKey(Constant.JWT_SIGNING_KEY.getBytes(StandardCharsets.UTF_8))
+      .requireIssuer(Constant.JWT_ISSUER)
+      .requireAudience(Constant.JWT_AUDIENCE);
+
+  private final Cache<HashCode, VerifiedToken> tokens;
+  private final long cacheTtlMillis;
+
+  public JwtServerInterceptor() {
+    this(DEFAULT_CACHE_SIZE, DEFAULT_CACHE_TTL_SECONDS, TimeUnit.SECONDS);
+  }
+
+  /**
+   * @param cacheSize maximum number of verified tokens kept in the cache
+   * @param cacheTtl  upper bound for keeping a token that has no (or a distant)
+   *                  expiration date
+   */
+  public JwtServerInterceptor(long cacheSize, long cacheTtl, TimeUnit unit) {
+    cacheTtlMillis = unit.toMillis(cacheTtl);
+    tokens = CacheBuilder.newBuilder()
+        .maximumSize(cacheSize)
+        .expireAfterWrite(cacheTtl, unit)
+        .recordStats()
+        .build();
+  }
+
+  /**
+   * Returns hit, miss and eviction counters of the verified tokens cache.
+   */
+  public CacheStats getCacheStats() {
+    return tokens.stats();
+  }
+
+  public long getCacheSize() {
+    return tokens.size();
+  }
+
   @Override
   public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> serverCall, Metadata metadata,
       ServerCallHandler<ReqT, RespT> serverCallHandler) {
@@ -40,33 +91,18 @@ public class JwtServerInterceptor implements ServerInterceptor {
     } else if (!value.startsWith(Constant.BEARER_TYPE)) {
       status = Status.UNAUTHENTICATED.withDescription("Unknown authorization type");
     } else {
-      Jws<Claims> claims = null;
       // remove authorization type prefix
       String token = value.substring(Constant.BEARER_TYPE.length()).trim();
+      AuthInfo info = null;
       try {
-        JwtParser parser = Jwts.parser().setSigningKey(Constant.JWT_SIGNING_KEY.getBytes("UTF8"));
-        // verify token signature and parse claims
-        claims = parser
-            .requireIssuer("https://github.com/vyatkin0/micro-services")
-            .requireAudience("https://github.com/vyatkin0/micro-services")
-            .parseClaimsJws(token);
+        info = authenticate(token);
       } catch (JwtException e) {
         status = Status.UNAUTHENTICATED.withDescription(e.getMessage()).withCause(e);
-      } catch (UnsupportedEncodingException e) {
+      } catch (IllegalArgumentException e) {
         status = Status.UNAUTHENTICATED.withDescription(e.getMessage());
       }
 
-      if (claims != null) {
-        AuthInfo info = new AuthInfo();
-        info.clientId = Integer.parseInt(claims.getBody().getSubject());
-
-        Object roles = claims.getBody().getOrDefault(Constant.CLAIM_MS_ROLE, new String[0]);
-        if (roles instanceof String) {
-          info.clientRoles = new String[] { (String) roles };
-        } else {
-          info.clientRoles = roles instanceof ArrayList<?> ? ((ArrayList<?>) roles).toArray(new String[0]) : new String[0];
-        }
-
+      if (info != null) {
         Context ctx = Context.current()
             .withValue(Constant.CLIENT_CONTEXT_KEY, info);
         return Contexts.interceptCall(ctx, serverCall, metadata, serverCallHandler);
@@ -78,4 +114,50 @@ public class JwtServerInterceptor implements ServerInterceptor {
       // noop
     };
   }
+
+  private AuthInfo authenticate(String token) {
+    HashCode key = Hashing.sha256().hashString(token, StandardCharsets.UTF_8);
+    long now = System.currentTimeMillis();
+
+    VerifiedToken cached = tokens.getIfPresent(key);
+    if (cached != null) {
+      if (now < cached.expiresAt) {
+        return cached.info;
+      }
+      // let the parser report the expiration
+      tokens.invalidate(key);
+    }
+
+    // verify token signature and parse claims
+    Claims claims = parser.parseClaimsJws(token).getBody();
+
+    String[] clientRoles;
+    Object roles = claims.getOrDefault(Constant.CLAIM_MS_ROLE, new String[0]);
+    if (roles instanceof String) {
+      clientRoles = new String[] { (String) roles };
+    } else {
+      clientRoles = roles instanceof ArrayList<?> ? ((ArrayList<?>) roles).toArray(new String[0]) : new String[0];
+    }
+
+    AuthInfo info = new AuthInfo(Integer.parseInt(claims.getSubject()), clientRoles);
+
+    long expiresAt = now + cacheTtlMillis;
+    Date expiration = claims.getExpiration();
+    if (expiration != null && expiration.getTime() < expiresAt) {
+      expiresAt = expiration.getTime();
+    }
+    tokens.put(key, new VerifiedToken(info, expiresAt));
+
+    return info;
+  }
+
+  private static final class VerifiedToken {
+    final AuthInfo info;
+    final long expiresAt;
+
+    VerifiedToken(AuthInfo info, long expiresAt) {
+      this.info = info;
+      this.expiresAt = expiresAt;
+    }
+  }
 }
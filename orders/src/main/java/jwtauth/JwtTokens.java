@@ -0,0 +1,48 @@
+package jwtauth;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import io.grpc.ClientInterceptor;
+import io.grpc.Metadata;
+import io.grpc.stub.MetadataUtils;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+
+/**
+ * Issues tokens accepted by JwtServerInterceptor, for the load client and tests.
+ * Not a production utility: tokens are signed with the development key of
+ * Constant, the server never issues tokens, the auth service does. It lives
+ * in this package, not in the tests, because orders.Client ships with the
+ * server and needs package-private constants of the interceptor.
+ */
+public final class JwtTokens {
+  private JwtTokens() {
+    throw new AssertionError();
+  }
+
+  /**
+   * @param roles role claims, "Role" for the client itself or "userId/Role"
+   */
+  public static String issue(int clientId, long ttl, TimeUnit unit, String... roles) {
+    return Jwts.builder()
+        .setSubject(Integer.toString(clientId))
+        .setIssuer(Constant.JWT_ISSUER)
+        .setAudience(Constant.JWT_AUDIENCE)
+        .setExpiration(new Date(System.currentTimeMillis() + unit.toMillis(ttl)))
+        .claim(Constant.CLAIM_MS_ROLE, Arrays.asList(roles))
+        .signWith(SignatureAlgorithm.HS256, Constant.JWT_SIGNING_KEY.getBytes(StandardCharsets.UTF_8))
+        .compact();
+  }
+
+  /**
+   * Returns a client interceptor sending the token in the authorization header.
+   */
+  public static ClientInterceptor bearer(String token) {
+    Metadata headers = new Metadata();
+    headers.put(Constant.AUTHORIZATION_METADATA_KEY, Constant.BEARER_TYPE + " " + token);
+    return MetadataUtils.newAttachHeadersInterceptor(headers);
+  }
+}
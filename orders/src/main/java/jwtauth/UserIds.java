@@ -0,0 +1,136 @@
+package jwtauth;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable set of user identifiers a client is authorized for.
+ * Identifiers are kept as a sorted primitive array, so membership checks
+ * neither box nor scan linearly.
+ */
+public final class UserIds {
+    public static final UserIds EMPTY = new UserIds(new int[0], 0);
+
+    private final int[] ids;
+    private final int first;
+    private List<Integer> list;
+
+    private UserIds(int[] ids, int first) {
+        this.ids = ids;
+        this.first = first;
+    }
+
+    /**
+     * Creates a set from identifiers in the order they were granted.
+     */
+    static UserIds of(int[] ids, int length) {
+        if (length == 0) {
+            return EMPTY;
+        }
+
+        int[] sorted = Arrays.copyOf(ids, length);
+        Arrays.sort(sorted);
+
+        int size = 1;
+        for (int i = 1; i < sorted.length; ++i) {
+            if (sorted[i] != sorted[size - 1]) {
+                sorted[size++] = sorted[i];
+            }
+        }
+
+        return new UserIds(size == sorted.length ? sorted : Arrays.copyOf(sorted, size), ids[0]);
+    }
+
+    /**
+     * Returns union of this set and the other one. The first identifier of
+     * this set (if any) stays the first one of the result.
+     */
+    UserIds union(UserIds other) {
+        if (other.isEmpty()) {
+            return this;
+        }
+        if (isEmpty()) {
+            return other;
+        }
+
+        int[] merged = new int[ids.length + other.ids.length];
+        int i = 0, j = 0, size = 0;
+        while (i < ids.length || j < other.ids.length) {
+            int next;
+            if (j == other.ids.length || (i < ids.length && ids[i] <= other.ids[j])) {
+                next = ids[i++];
+            } else {
+                next = other.ids[j++];
+            }
+            if (size == 0 || merged[size - 1] != next) {
+                merged[size++] = next;
+            }
+        }
+
+        return new UserIds(Arrays.copyOf(merged, size), first);
+    }
+
+    public boolean contains(int id) {
+        return Arrays.binarySearch(ids, id) >= 0;
+    }
+
+    public boolean isEmpty() {
+        return ids.length == 0;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * Returns the identifier that was granted first.
+     */
+    public int first() {
+        if (isEmpty()) {
+            throw new IndexOutOfBoundsException();
+        }
+        return first;
+    }
+
+    /**
+     * Returns the identifiers as a list, e.g. to bind them as a query parameter.
+     */
+    public List<Integer> asList() {
+        List<Integer> l = list;
+        if (l == null) {
+            l = List.copyOf(new AbstractList<Integer>() {
+                @Override
+                public Integer get(int index) {
+                    return ids[index];
+                }
+
+                @Override
+                public int size() {
+                    return ids.length;
+                }
+            });
+            list = l;
+        }
+        return l;
+    }
+
+    /**
+     * Sets are equal if they have the same identifiers, whichever was granted
+     * first.
+     */
+    @Override
+    public boolean equals(Object o) {
+        return this == o || (o instanceof UserIds && Arrays.equals(ids, ((UserIds) o).ids));
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(ids);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(ids);
+    }
+}
@@ -4,47 +4,305 @@ import io.grpc.Server;
 import io.grpc.ServerBuilder;
 import jwtauth.JwtServerInterceptor;
 
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
+import orders.compression.CompressionInterceptor;
+import orders.hibernate.HibernateUtil;
+import orders.hibernate.PoolMetrics;
+import orders.hibernate.QueryStats;
+import orders.hibernate.UnitOfWork;
+import orders.hibernate.UnitOfWorkInterceptor;
+import orders.limit.ConcurrencyLimitInterceptor;
+import orders.limit.ConcurrencyLimitInterceptor.Priority;
+import orders.limit.RateLimitInterceptor;
+import orders.metrics.MetricsInterceptor;
+import orders.metrics.MetricsRegistry;
+import orders.metrics.MetricsServer;
+import orders.service.OrderEventFeed;
+import orders.service.ProductCatalog;
 import orders.service.ProductsImpl;
+import orders.service.SingleFlight;
 import orders.service.OrdersImpl;
 
 public class App {
   private static final Logger logger = Logger.getLogger(App.class.getName());
 
+  /* Limits of clients per method, unless orders.ratelimit is set */
+  static final String DEFAULT_RATE_LIMITS = "Admin=unlimited; *=100/200";
+
+  /* Methods served from memory, they may run on transport threads */
+  static final Set<String> NON_BLOCKING_METHODS = Set.of(ProductsGrpc.getListMethod().getFullMethodName());
+
+  private final ServerBuilder<?> builder;
+  private final ExecutorMode executorMode;
+  private final int executorThreads;
+
+  private final MetricsRegistry metrics = new MetricsRegistry();
+
   private Server server;
+  private ProductCatalog catalog;
+  private OrderEventFeed events;
+  private ExecutorService executor;
+  private List<SingleFlight<?, ?>> flights = List.of();
+  private RateLimitInterceptor rateLimiter;
 
-  private void start() throws IOException {
-    /* The port on which the server should run */
-    int port = 5103;
-    server = ServerBuilder.forPort(port)
-        .addService(new OrdersImpl())
-        .addService(new ProductsImpl())
-        .intercept(new JwtServerInterceptor())  // add the JwtServerInterceptor
-        .build()
-        .start();
-    logger.info("Server started, listening on " + port);
-    Runtime.getRuntime().addShutdownHook(new Thread() {
-      @Override
-      public void run() {
-        // Use stderr here since the logger may have been reset by its JVM shutdown hook.
-        logger.info("*** shutting down gRPC server since JVM is shutting down");
-        try {
-          App.this.stop();
-        } catch (InterruptedException e) {
-          e.printStackTrace(System.err);
-        }
-        logger.info("*** server shut down");
-      }
-    });
+  App(int port, ExecutorMode executorMode, int executorThreads) {
+    this(ServerBuilder.forPort(port), executorMode, executorThreads);
+  }
+
+  /**
+   * @param builder server builder for the transport, e.g. in-process one
+   */
+  App(ServerBuilder<?> builder, ExecutorMode executorMode, int executorThreads) {
+    this.builder = builder;
+    this.executorMode = executorMode;
+    this.executorThreads = executorThreads;
+  }
+
+  void start() throws IOException {
+    /* Products are served from memory and reloaded periodically */
+    catalog = new ProductCatalog();
+    catalog.start(Long.getLong("orders.products.refreshSeconds", 60), TimeUnit.SECONDS);
+
+    /* Latest order changes are kept for watchers, older ones are replayed from the database */
+    events = new OrderEventFeed(Integer.getInteger("orders.watch.bufferSize", 4096));
+    events.start(Long.getLong("orders.watch.retentionHours", 24), TimeUnit.HOURS);
+
+    JwtServerInterceptor jwtInterceptor = new JwtServerInterceptor();
+    /* Rates of calls of every client to every method, see RateLimitInterceptor.parse() */
+    rateLimiter = RateLimitInterceptor.parse(System.getProperty("orders.ratelimit", DEFAULT_RATE_LIMITS));
+    OrdersImpl orders = new OrdersImpl(events);
+    ProductsImpl products = new ProductsImpl(catalog);
+    List<SingleFlight<?, ?>> flights = new ArrayList<>(orders.getGetFlights());
+    flights.add(products.getGetFlight());
+    this.flights = flights;
+    builder.addService(orders)
+        .addService(products)
+        .intercept(rateLimiter) // runs after the JwtServerInterceptor, which identifies the client
+        .intercept(jwtInterceptor)  // add the JwtServerInterceptor
+        .intercept(new UnitOfWorkInterceptor()); // close Hibernate sessions when calls end
+
+    /*
+     * Lists are gzipped when large enough. Gzip costs about 12 us per message
+     * plus 2.3 us per KiB and saves 75% of a list, so at 1 Gbit/s it pays off
+     * from about 3 KiB, see CompressionBenchmark. A negative size disables it.
+     */
+    int compressionMinBytes = Integer.getInteger("orders.compression.minBytes", 4096);
+    CompressionInterceptor compression = null;
+    if (compressionMinBytes >= 0) {
+      compression = new CompressionInterceptor()
+          .compress(OrdersGrpc.getListMethod(), compressionMinBytes)
+          .compress(OrdersGrpc.getListV2Method(), compressionMinBytes)
+          .compress(OrdersGrpc.getListStreamMethod(), compressionMinBytes)
+          .compress(OrdersGrpc.getGetManyMethod(), compressionMinBytes)
+          .compress(OrdersGrpc.getCreateBatchMethod(), compressionMinBytes)
+          .compress(ProductsGrpc.getListMethod(), compressionMinBytes);
+      builder.compressorRegistry(compression.getCompressorRegistry())
+          .intercept(compression);
+    }
+
+    switch (executorMode) {
+      case FIXED:
+        executor = Executors.newFixedThreadPool(executorThreads, daemonThreads("grpc-call-"));
+        builder.executor(executor);
+        break;
+      case VIRTUAL:
+        executor = newVirtualThreadPerTaskExecutor();
+        builder.executor(executor);
+        break;
+      case SPLIT:
+        executor = Executors.newFixedThreadPool(executorThreads, daemonThreads("grpc-blocking-"));
+        builder.directExecutor()
+            // runs before the rest of interceptors, except metrics
+            .intercept(new BlockingExecutorInterceptor(executor, NON_BLOCKING_METHODS));
+        break;
+      default:
+        break;
+    }
+
+    /*
+     * Calls above the adaptive limit are rejected before they queue for the
+     * database, ahead of the authentication and, in SPLIT mode, of the
+     * blocking executor. Streams and in-memory methods are not limited.
+     * A non-positive maximum disables the limit.
+     */
+    int maxConcurrency = Integer.getInteger("orders.limit.max", 200);
+    ConcurrencyLimitInterceptor limiter = null;
+    if (maxConcurrency > 0) {
+      limiter = new ConcurrencyLimitInterceptor(Integer.getInteger("orders.limit.initial", 20), maxConcurrency,
+          Integer.getInteger("orders.limit.readPercent", 80))
+          .limit(OrdersGrpc.getListMethod(), Priority.READ)
+          .limit(OrdersGrpc.getListV2Method(), Priority.READ)
+          .limit(OrdersGrpc.getGetMethod(), Priority.READ)
+          .limit(OrdersGrpc.getGetV2Method(), Priority.READ)
+          .limit(OrdersGrpc.getGetManyMethod(), Priority.READ)
+          .limit(ProductsGrpc.getGetMethod(), Priority.READ)
+          .limit(OrdersGrpc.getCreateMethod(), Priority.WRITE)
+          .limit(OrdersGrpc.getCreateBatchMethod(), Priority.WRITE)
+          .limit(OrdersGrpc.getUpdateMethod(), Priority.WRITE)
+          .limit(OrdersGrpc.getPatchMethod(), Priority.WRITE)
+          .limit(OrdersGrpc.getDeleteMethod(), Priority.WRITE);
+      builder.intercept(limiter);
+    }
+
+    // added last to run first, so latency includes all the interceptors
+    MetricsInterceptor metricsInterceptor = new MetricsInterceptor();
+    builder.intercept(metricsInterceptor);
+    registerMetrics(metricsInterceptor, jwtInterceptor);
+    if (null != compression) {
+      metrics.register(compression);
+    }
+    if (null != limiter) {
+      metrics.register(limiter);
+    }
+
+    server = builder.build().start();
+    logger.info("Server started, listening on " + getPort() + ", executor " + executorMode);
+  }
+
+  private void registerMetrics(MetricsInterceptor metricsInterceptor, JwtServerInterceptor jwtInterceptor) {
+    metrics.register(metricsInterceptor);
+
+    metrics.counter("orders_jwt_cache_hits_total", "Tokens found in the verified tokens cache.",
+        () -> jwtInterceptor.getCacheStats().hitCount());
+    metrics.counter("orders_jwt_cache_misses_total", "Tokens verified and parsed.",
+        () -> jwtInterceptor.getCacheStats().missCount());
+    metrics.counter("orders_jwt_cache_evictions_total", "Tokens evicted from the verified tokens cache by size or age.",
+        () -> jwtInterceptor.getCacheStats().evictionCount());
+    metrics.gauge("orders_jwt_cache_size", "Tokens in the verified tokens cache.", jwtInterceptor::getCacheSize);
+
+    metrics.gauge("orders_products_catalog_version", "Version of the products catalog snapshot.",
+        () -> catalog.get().getVersion());
+    metrics.gauge("orders_products_catalog_size", "Products in the catalog snapshot.",
+        () -> catalog.get().getList().getProductListCount());
+
+    QueryStats queries = HibernateUtil.getQueryStats();
+    metrics.counter("orders_sql_executions_total", "SQL statements executed.", queries::getExecutionCount);
+    metrics.counter("orders_sql_seconds_total", "Time spent executing SQL statements.",
+        () -> queries.getExecutionNanos() / 1e9);
+    metrics.counter("orders_sql_slow_executions_total", "SQL statements slower than orders.sql.slowMillis.",
+        queries::getSlowExecutionCount);
+
+    metrics.register(App::collectCacheMetrics);
+
+    metrics.gauge("orders_watch_subscriptions", "Orders.Watch streams open.", events::getSubscriptionCount);
+    metrics.counter("orders_watch_events_total", "Order changes published to watchers.", events::getPublishedCount);
+    metrics.counter("orders_watch_overflows_total", "Times watchers lagged behind the events kept in memory.",
+        events::getOverflowCount);
+
+    metrics.register(this::collectSingleFlightMetrics);
+    metrics.register(rateLimiter);
+
+    metrics.gauge("orders_hibernate_open_sessions", "Hibernate sessions opened and not closed yet.",
+        HibernateUtil::getOpenSessionCount);
+    metrics.counter("orders_cancelled_work_skipped_total",
+        "Handlers not run and sessions not opened because calls have been cancelled or have exceeded deadlines.",
+        UnitOfWork::getSkippedCount);
+    metrics.counter("orders_cancelled_queries_total",
+        "Sessions open when their calls have been cancelled or have exceeded deadlines, running statements are cancelled.",
+        UnitOfWork::getCancelledQueryCount);
+
+    PoolMetrics pool = HibernateUtil.getPoolMetrics();
+    if (null != pool) {
+      metrics.gauge("orders_db_pool_active_connections", "Connections in use.", pool::getActiveConnections);
+      metrics.gauge("orders_db_pool_idle_connections", "Idle connections.", pool::getIdleConnections);
+      metrics.gauge("orders_db_pool_pending_threads", "Threads waiting for a connection.", pool::getPendingThreads);
+      metrics.gauge("orders_db_pool_max_connections", "Maximum size of the pool.", pool::getMaxConnections);
+      metrics.counter("orders_db_pool_acquire_total", "Connections acquired.", pool::getAcquireCount);
+      metrics.counter("orders_db_pool_acquire_seconds_total", "Time spent waiting for connections.",
+          () -> pool.getAcquireNanos() / 1e9);
+      metrics.counter("orders_db_pool_timeouts_total", "Connection requests timed out.", pool::getTimeoutCount);
+    }
+  }
+
+  /**
+   * Writes hits and misses of Hibernate second-level cache regions.
+   */
+  private static void collectCacheMetrics(MetricsRegistry.Writer writer) {
+    Statistics statistics = HibernateUtil.getStatistics();
+    if (!statistics.isStatisticsEnabled()) {
+      return;
+    }
+
+    String[] regions = statistics.getSecondLevelCacheRegionNames();
+    writer.type("orders_cache_hits_total", "counter", "Entities found in the second-level cache.");
+    for (String region : regions) {
+      writer.sample("orders_cache_hits_total", "region=\"" + region + "\"",
+          statistics.getDomainDataRegionStatistics(region).getHitCount());
+    }
+    writer.type("orders_cache_misses_total", "counter", "Entities looked up and not found in the second-level cache.");
+    for (String region : regions) {
+      writer.sample("orders_cache_misses_total", "region=\"" + region + "\"",
+          statistics.getDomainDataRegionStatistics(region).getMissCount());
+    }
+    writer.type("orders_cache_hit_ratio", "gauge", "Ratio of second-level cache lookups found since start.");
+    for (String region : regions) {
+      CacheRegionStatistics stats = statistics.getDomainDataRegionStatistics(region);
+      long lookups = stats.getHitCount() + stats.getMissCount();
+      writer.sample("orders_cache_hit_ratio", "region=\"" + region + "\"",
+          lookups > 0 ? (double) stats.getHitCount() / lookups : 0);
+    }
   }
 
-  private void stop() throws InterruptedException {
+  /**
+   * Writes reads coalesced with concurrent identical reads.
+   */
+  private void collectSingleFlightMetrics(MetricsRegistry.Writer writer) {
+    writer.type("orders_singleflight_requests_total", "counter",
+        "Reads by whether they got the value loaded by a concurrent identical read.");
+    for (SingleFlight<?, ?> flight : flights) {
+      String labels = "method=\"" + flight.getName() + "\",shared=";
+      writer.sample("orders_singleflight_requests_total", labels + "\"false\"", flight.getLoadCount());
+      writer.sample("orders_singleflight_requests_total", labels + "\"true\"", flight.getSharedCount());
+    }
+    writer.type("orders_singleflight_shared_ratio", "gauge", "Ratio of reads coalesced since start.");
+    for (SingleFlight<?, ?> flight : flights) {
+      long total = flight.getLoadCount() + flight.getSharedCount();
+      writer.sample("orders_singleflight_shared_ratio", "method=\"" + flight.getName() + "\"",
+          total > 0 ? (double) flight.getSharedCount() / total : 0);
+    }
+    writer.type("orders_singleflight_in_flight", "gauge", "Loads in flight.");
+    for (SingleFlight<?, ?> flight : flights) {
+      writer.sample("orders_singleflight_in_flight", "method=\"" + flight.getName() + "\"",
+          flight.getInFlightCount());
+    }
+  }
+
+  MetricsRegistry getMetrics() {
+    return metrics;
+  }
+
+  int getPort() {
+    return server.getPort();
+  }
+
+  void stop() throws InterruptedException {
+    // watch streams never end by themselves
+    if (events != null) {
+      events.close();
+    }
     if (server != null) {
       server.shutdown().awaitTermination(30, TimeUnit.SECONDS);
     }
+    if (executor != null) {
+      executor.shutdown();
+    }
+    if (catalog != null) {
+      catalog.close();
+    }
   }
 
   /**
@@ -56,12 +314,61 @@ public class App {
     }
   }
 
+  private static ThreadFactory daemonThreads(String prefix) {
+    AtomicInteger count = new AtomicInteger();
+    return r -> {
+      Thread t = new Thread(r, prefix + count.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    };
+  }
+
+  private static ExecutorService newVirtualThreadPerTaskExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (NoSuchMethodException e) {
+      throw new IllegalStateException("Virtual threads require Java 21 or later", e);
+    } catch (IllegalAccessException | InvocationTargetException e) {
+      throw new IllegalStateException("Unable to create virtual thread executor", e);
+    }
+  }
+
   /**
    * Main launches the server from the command line.
    */
   public static void main(String[] args) throws IOException, InterruptedException {
-    final App server = new App();
+    /* The port on which the server should run */
+    int port = Integer.getInteger("orders.port", 5103);
+    int threads = Integer.getInteger("orders.executor.threads", 4 * Runtime.getRuntime().availableProcessors());
+
+    final App server = new App(port, ExecutorMode.fromSystemProperties(), threads);
     server.start();
+
+    /* Prometheus scrape endpoint, a negative port disables it */
+    int metricsPort = Integer.getInteger("orders.metrics.port", 5104);
+    final MetricsServer metricsServer = metricsPort >= 0 ? new MetricsServer(metricsPort, server.getMetrics()) : null;
+    if (metricsServer != null) {
+      // slowest SQL statements on demand
+      metricsServer.addPage("/queries", "text/plain; charset=utf-8",
+          () -> HibernateUtil.getQueryStats().report(Integer.getInteger("orders.sql.top", 20)));
+    }
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override
+      public void run() {
+        // Use stderr here since the logger may have been reset by its JVM shutdown hook.
+        logger.info("*** shutting down gRPC server since JVM is shutting down");
+        try {
+          server.stop();
+        } catch (InterruptedException e) {
+          e.printStackTrace(System.err);
+        }
+        if (metricsServer != null) {
+          metricsServer.close();
+        }
+        HibernateUtil.close();
+        logger.info("*** server shut down");
+      }
+    });
     server.blockUntilShutdown();
   }
 }
@@ -0,0 +1,119 @@
+package orders;
+
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+import io.grpc.Context;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+
+/**
+ * Moves calls off transport threads when the server uses direct executor.
+ * Listener callbacks of every method except the non-blocking ones run on the
+ * blocking executor, serially for each call. Must run before every
+ * interceptor that may block, so the rest of the chain runs on the blocking
+ * executor as well. Callbacks run in the context of the call, so deadline and
+ * cancellation reach them on the blocking executor too.
+ */
+class BlockingExecutorInterceptor implements ServerInterceptor {
+  private final Executor blockingExecutor;
+  private final Set<String> nonBlockingMethods;
+
+  /**
+   * @param nonBlockingMethods full names of methods that never block, e.g.
+   *                           orders.Products/List
+   */
+  BlockingExecutorInterceptor(Executor blockingExecutor, Set<String> nonBlockingMethods) {
+    this.blockingExecutor = blockingExecutor;
+    this.nonBlockingMethods = nonBlockingMethods;
+  }
+
+  @Override
+  public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> serverCall, Metadata metadata,
+      ServerCallHandler<ReqT, RespT> serverCallHandler) {
+    if (nonBlockingMethods.contains(serverCall.getMethodDescriptor().getFullMethodName())) {
+      return serverCallHandler.startCall(serverCall, metadata);
+    }
+
+    return new SerializingListener<>(MoreExecutors.newSequentialExecutor(blockingExecutor), Context.current(),
+        serverCall, metadata, serverCallHandler);
+  }
+
+  /**
+   * Runs callbacks of the delegate on the executor given. The delegate itself
+   * is created there too, since starting a call invokes the rest of the chain.
+   * A callback that throws closes the call, as the server does for callbacks
+   * it runs itself.
+   */
+  private static final class SerializingListener<ReqT> extends ServerCall.Listener<ReqT> {
+    private final Executor executor;
+    private final Context context;
+    private final ServerCall<ReqT, ?> serverCall;
+    private ServerCall.Listener<ReqT> delegate;
+
+    <RespT> SerializingListener(Executor executor, Context context, ServerCall<ReqT, RespT> serverCall,
+        Metadata metadata, ServerCallHandler<ReqT, RespT> serverCallHandler) {
+      this.executor = executor;
+      this.context = context;
+      this.serverCall = serverCall;
+      execute(() -> {
+        try {
+          delegate = serverCallHandler.startCall(serverCall, metadata);
+        } catch (RuntimeException e) {
+          delegate = new ServerCall.Listener<ReqT>() {
+            // noop
+          };
+          throw e;
+        }
+      });
+    }
+
+    @Override
+    public void onMessage(ReqT message) {
+      execute(() -> delegate.onMessage(message));
+    }
+
+    @Override
+    public void onHalfClose() {
+      execute(() -> delegate.onHalfClose());
+    }
+
+    @Override
+    public void onCancel() {
+      execute(() -> delegate.onCancel());
+    }
+
+    @Override
+    public void onComplete() {
+      execute(() -> delegate.onComplete());
+    }
+
+    @Override
+    public void onReady() {
+      execute(() -> delegate.onReady());
+    }
+
+    private void execute(Runnable callback) {
+      executor.execute(context.wrap(() -> {
+        try {
+          callback.run();
+        } catch (RuntimeException e) {
+          close(e);
+        }
+      }));
+    }
+
+    private void close(RuntimeException e) {
+      try {
+        serverCall.close(Status.fromThrowable(e), new Metadata());
+      } catch (IllegalStateException alreadyClosed) {
+        // the call is closed already, e.g. the callback threw after closing it
+      }
+    }
+  }
+}
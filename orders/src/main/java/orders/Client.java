@@ -0,0 +1,407 @@
+package orders;
+
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import jwtauth.JwtTokens;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.Empty;
+import com.google.protobuf.Int32Value;
+
+import orders.hibernate.HibernateUtil;
+
+/**
+ * Load generator for the orders service.
+ *
+ * Runs a weighted mix of Orders and Products calls either in a closed loop,
+ * with a fixed number of clients each waiting for its previous call, or in an
+ * open loop at a target rate regardless of response times. Latencies of the
+ * open loop are measured from the time a call was scheduled, so queueing in the
+ * server is not hidden. Configured with system properties:
+ *
+ * <pre>
+ * orders.client.target       host:port or "in-process" to start the server with H2 in this JVM
+ * orders.client.mode         closed (default) or open
+ * orders.client.concurrency  clients of the closed loop, 16 by default
+ * orders.client.rps          target rate of the open loop, 1000 by default
+ * orders.client.seconds      duration of measurement, 30 by default
+ * orders.client.warmup       duration of warm up, 5 seconds by default
+ * orders.client.mix          weights of calls, list=20,get=40,create=10,update=10,delete=5,products=15 by default
+ * orders.client.user         subject of the token, 1 by default
+ * orders.client.roles        role claims of the token, Admin by default
+ * orders.client.orders       orders created before the run, 1000 by default
+ * </pre>
+ */
+public class Client {
+  private static final Logger logger = Logger.getLogger(Client.class.getName());
+
+  /** Calls of the mix */
+  enum Operation {
+    LIST, GET, CREATE, UPDATE, DELETE, PRODUCTS
+  }
+
+  private static final long DEADLINE_SECONDS = 10;
+  private static final int MAX_OUTSTANDING = 10_000;
+  /** Orders the server accepts in one CreateBatch call */
+  private static final int MAX_BATCH_ORDERS = 1000;
+
+  private final OrdersGrpc.OrdersFutureStub orders;
+  private final ProductsGrpc.ProductsFutureStub products;
+  private final Operation[] operations;
+  private final int[] weights;
+  private final int totalWeight;
+
+  /* Ids of orders to get and update, never deleted */
+  private final AtomicLongArray seeded;
+  /* Ids of orders created by the run, deleted by the run */
+  private final Queue<Long> created = new ConcurrentLinkedQueue<>();
+
+  private final Map<Operation, Recorder> latencies = new EnumMap<>(Operation.class);
+  private final Map<Operation, LongAdder> errors = new EnumMap<>(Operation.class);
+  private final Map<Status.Code, LongAdder> errorCodes = new ConcurrentHashMap<>();
+
+  Client(ManagedChannel channel, Map<Operation, Integer> mix, int seedOrders) {
+    orders = OrdersGrpc.newFutureStub(channel);
+    products = ProductsGrpc.newFutureStub(channel);
+
+    operations = mix.keySet().toArray(new Operation[0]);
+    weights = new int[operations.length];
+    int total = 0;
+    for (int i = 0; i < operations.length; ++i) {
+      total += mix.get(operations[i]);
+      weights[i] = total;
+    }
+    if (total <= 0) {
+      throw new IllegalArgumentException("Mix has no calls");
+    }
+    totalWeight = total;
+
+    for (Operation op : Operation.values()) {
+      latencies.put(op, new Recorder(3));
+      errors.put(op, new LongAdder());
+    }
+
+    seeded = new AtomicLongArray(Math.max(1, seedOrders));
+  }
+
+  /**
+   * Creates orders used by Get and Update calls.
+   */
+  void seed() throws InterruptedException, ExecutionException {
+    for (int from = 0; from < seeded.length(); from += MAX_BATCH_ORDERS) {
+      int to = Math.min(from + MAX_BATCH_ORDERS, seeded.length());
+      OrderBatchRequest.Builder batch = OrderBatchRequest.newBuilder();
+      for (int i = from; i < to; ++i) {
+        batch.addOrders(newOrder());
+      }
+
+      List<OrderBatchResult> results = orders.withDeadlineAfter(DEADLINE_SECONDS * 6, TimeUnit.SECONDS)
+          .createBatch(batch.build()).get().getResultsList();
+      for (int i = 0; i < results.size(); ++i) {
+        OrderBatchResult result = results.get(i);
+        if (result.getCode() != 0) {
+          throw new IllegalStateException("Order is not created: " + result.getDescription());
+        }
+        seeded.set(from + i, result.getOrder().getData().getId());
+      }
+    }
+  }
+
+  /**
+   * Runs the closed loop, each of the clients issues the next call when the
+   * previous one has completed.
+   */
+  void runClosed(int concurrency, long nanos) throws InterruptedException {
+    ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+    long end = System.nanoTime() + nanos;
+    for (int i = 0; i < concurrency; ++i) {
+      clients.execute(() -> {
+        while (System.nanoTime() < end) {
+          Operation op = nextOperation();
+          long start = System.nanoTime();
+          try {
+            call(op).get();
+            latencies.get(op).recordValue(System.nanoTime() - start);
+          } catch (ExecutionException e) {
+            failed(op, e.getCause());
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+          }
+        }
+      });
+    }
+    clients.shutdown();
+    clients.awaitTermination(nanos + TimeUnit.SECONDS.toNanos(DEADLINE_SECONDS), TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Runs the open loop, calls are issued at the rate given. Calls exceeding
+   * the limit of outstanding ones are counted as RESOURCE_EXHAUSTED errors
+   * without being sent.
+   */
+  void runOpen(double rps, long nanos) throws InterruptedException {
+    Semaphore outstanding = new Semaphore(MAX_OUTSTANDING);
+    long interval = (long) (TimeUnit.SECONDS.toNanos(1) / rps);
+    long start = System.nanoTime();
+    long end = start + nanos;
+
+    for (long scheduled = start; scheduled < end; scheduled += interval) {
+      long delay = scheduled - System.nanoTime();
+      if (delay > 0) {
+        LockSupport.parkNanos(delay);
+      }
+
+      Operation op = nextOperation();
+      if (!outstanding.tryAcquire()) {
+        failed(op, Status.RESOURCE_EXHAUSTED.asRuntimeException());
+        continue;
+      }
+
+      final long intended = scheduled;
+      Futures.addCallback(call(op), new FutureCallback<Object>() {
+        @Override
+        public void onSuccess(Object result) {
+          latencies.get(op).recordValue(System.nanoTime() - intended);
+          outstanding.release();
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+          failed(op, t);
+          outstanding.release();
+        }
+      }, MoreExecutors.directExecutor());
+    }
+
+    if (!outstanding.tryAcquire(MAX_OUTSTANDING, DEADLINE_SECONDS, TimeUnit.SECONDS)) {
+      logger.warning("Outstanding calls have not completed");
+    }
+  }
+
+  void run(String mode, long nanos) throws InterruptedException {
+    if ("open".equals(mode)) {
+      runOpen(Double.parseDouble(System.getProperty("orders.client.rps", "1000")), nanos);
+    } else {
+      runClosed(Integer.getInteger("orders.client.concurrency", 16), nanos);
+    }
+  }
+
+  /**
+   * Discards results recorded so far, e.g. during warm up.
+   */
+  void reset() {
+    latencies.values().forEach(Recorder::reset);
+    errors.values().forEach(LongAdder::reset);
+    errorCodes.clear();
+  }
+
+  String report(long nanos) {
+    double seconds = nanos / 1e9;
+    StringBuilder sb = new StringBuilder(String.format("%-9s %9s %9s %9s %9s %9s %9s %9s %9s%n",
+        "call", "count", "errors", "rps", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+
+    Histogram all = null;
+    long allErrors = 0;
+    for (Operation op : Operation.values()) {
+      Histogram h = latencies.get(op).getIntervalHistogram();
+      long e = errors.get(op).sum();
+      if (h.getTotalCount() + e == 0) {
+        continue;
+      }
+      appendRow(sb, op.name(), h, e, seconds);
+
+      if (all == null) {
+        all = h.copy();
+      } else {
+        all.add(h);
+      }
+      allErrors += e;
+    }
+    if (all != null) {
+      appendRow(sb, "total", all, allErrors, seconds);
+      sb.append(String.format("error rate %.3f%%%n", 100.0 * allErrors / Math.max(1, all.getTotalCount() + allErrors)));
+    }
+    new TreeMap<>(errorCodes).forEach((code, count) -> sb.append(String.format("  %s: %d%n", code, count.sum())));
+    return sb.toString();
+  }
+
+  private static void appendRow(StringBuilder sb, String name, Histogram h, long errors, double seconds) {
+    sb.append(String.format("%-9s %9d %9d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n", name, h.getTotalCount(), errors,
+        (h.getTotalCount() + errors) / seconds,
+        h.getValueAtPercentile(50) / 1e6, h.getValueAtPercentile(90) / 1e6, h.getValueAtPercentile(99) / 1e6,
+        h.getValueAtPercentile(99.9) / 1e6, h.getMaxValue() / 1e6));
+  }
+
+  private Operation nextOperation() {
+    int r = ThreadLocalRandom.current().nextInt(totalWeight);
+    for (int i = 0; i < weights.length; ++i) {
+      if (r < weights[i]) {
+        return operations[i];
+      }
+    }
+    return operations[operations.length - 1];
+  }
+
+  private long seededOrder() {
+    return seeded.get(ThreadLocalRandom.current().nextInt(seeded.length()));
+  }
+
+  private ListenableFuture<?> call(Operation op) {
+    OrdersGrpc.OrdersFutureStub stub = orders.withDeadlineAfter(DEADLINE_SECONDS, TimeUnit.SECONDS);
+    switch (op) {
+      case LIST:
+        return stub.list(OrderListRequest.newBuilder()
+            .setCount(20)
+            .setOffset(ThreadLocalRandom.current().nextInt(seeded.length()))
+            .build());
+      case GET:
+        return stub.get(OrderRequest.Id.newBuilder().setId(seededOrder()).build());
+      case UPDATE:
+        return stub.update(newOrder().toBuilder().setId(seededOrder()).build());
+      case DELETE: {
+        Long id = created.poll();
+        if (id != null) {
+          return stub.delete(OrderRequest.Id.newBuilder().setId(id).build());
+        }
+        // nothing to delete yet, create an order instead
+        return create(stub);
+      }
+      case CREATE:
+        return create(stub);
+      case PRODUCTS:
+        return products.withDeadlineAfter(DEADLINE_SECONDS, TimeUnit.SECONDS).list(Empty.getDefaultInstance());
+      default:
+        throw new IllegalArgumentException(op.name());
+    }
+  }
+
+  private ListenableFuture<OrderReply> create(OrdersGrpc.OrdersFutureStub stub) {
+    ListenableFuture<OrderReply> reply = stub.create(newOrder());
+    Futures.addCallback(reply, new FutureCallback<OrderReply>() {
+      @Override
+      public void onSuccess(OrderReply result) {
+        created.add(result.getData().getId());
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        // counted by the caller
+      }
+    }, MoreExecutors.directExecutor());
+    return reply;
+  }
+
+  private void failed(Operation op, Throwable t) {
+    errors.get(op).increment();
+    errorCodes.computeIfAbsent(Status.fromThrowable(t).getCode(), c -> new LongAdder()).increment();
+  }
+
+  private static OrderRequest newOrder() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    OrderRequest.Builder builder = OrderRequest.newBuilder()
+        .setUser(Int32Value.of(Integer.getInteger("orders.client.user", 1)))
+        .setCustomer("Customer " + random.nextInt(1000))
+        .setAddress(AddressReply.newBuilder()
+            .setStreet(random.nextInt(1, 1000) + " Main Street")
+            .setZipCode(String.format("%05d", random.nextInt(100000)))
+            .setCountryCode("US"));
+
+    // products added by import.sql
+    int count = random.nextInt(1, 4);
+    int first = random.nextInt(1, 6);
+    for (int i = 0; i < count; ++i) {
+      builder.addOrderProductList(ProductReply.newBuilder().setId(1 + (first + i) % 5));
+    }
+    return builder.build();
+  }
+
+  static Map<Operation, Integer> parseMix(String mix) {
+    Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+    for (String entry : mix.split(",")) {
+      String[] kv = entry.trim().split("=");
+      if (kv.length != 2) {
+        throw new IllegalArgumentException("Invalid mix entry: " + entry);
+      }
+      int weight = Integer.parseInt(kv[1].trim());
+      if (weight > 0) {
+        weights.put(Operation.valueOf(kv[0].trim().toUpperCase(Locale.ROOT)), weight);
+      }
+    }
+    return weights;
+  }
+
+  /**
+   * Main runs the load from the command line.
+   */
+  public static void main(String[] args) throws Exception {
+    String target = System.getProperty("orders.client.target", "localhost:5103");
+    String mode = System.getProperty("orders.client.mode", "closed");
+    long seconds = Long.getLong("orders.client.seconds", 30);
+    long warmup = Long.getLong("orders.client.warmup", 5);
+    Map<Operation, Integer> mix = parseMix(
+        System.getProperty("orders.client.mix", "list=20,get=40,create=10,update=10,delete=5,products=15"));
+
+    String token = JwtTokens.issue(Integer.getInteger("orders.client.user", 1), seconds + warmup + 3600,
+        TimeUnit.SECONDS, System.getProperty("orders.client.roles", "Admin").split(","));
+
+    App server = null;
+    ManagedChannelBuilder<?> channelBuilder;
+    if ("in-process".equals(target)) {
+      String name = InProcessServerBuilder.generateName();
+      server = new App(InProcessServerBuilder.forName(name), ExecutorMode.fromSystemProperties(),
+          Integer.getInteger("orders.executor.threads", 4 * Runtime.getRuntime().availableProcessors()));
+      server.start();
+      channelBuilder = InProcessChannelBuilder.forName(name);
+    } else {
+      channelBuilder = ManagedChannelBuilder.forTarget(target).usePlaintext();
+    }
+
+    ManagedChannel channel = channelBuilder.intercept(JwtTokens.bearer(token)).build();
+    try {
+      Client client = new Client(channel, mix, Integer.getInteger("orders.client.orders", 1000));
+      client.seed();
+
+      client.run(mode, TimeUnit.SECONDS.toNanos(warmup));
+      client.reset();
+      client.run(mode, TimeUnit.SECONDS.toNanos(seconds));
+
+      System.out.println(mode + " loop, " + target + ", " + seconds + " s");
+      System.out.print(client.report(TimeUnit.SECONDS.toNanos(seconds)));
+    } finally {
+      channel.shutdownNow().awaitTermination(10, TimeUnit.SECONDS);
+      if (server != null) {
+        server.stop();
+        HibernateUtil.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,33 @@
+package orders;
+
+import java.util.Locale;
+
+/**
+ * Execution model of calls, selected with -Dorders.executor=cached|fixed|virtual|split.
+ */
+public enum ExecutorMode {
+  /**
+   * gRPC default, an unbounded cached thread pool.
+   */
+  CACHED,
+
+  /**
+   * A bounded pool of orders.executor.threads platform threads.
+   */
+  FIXED,
+
+  /**
+   * A new virtual thread per task, requires Java 21 or later.
+   */
+  VIRTUAL,
+
+  /**
+   * Calls served from memory run directly on transport threads, calls doing
+   * blocking database work are handed to a bounded pool.
+   */
+  SPLIT;
+
+  public static ExecutorMode fromSystemProperties() {
+    return valueOf(System.getProperty("orders.executor", CACHED.name()).toUpperCase(Locale.ROOT));
+  }
+}
@@ -0,0 +1,144 @@
+package orders.compression;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.protobuf.MessageLite;
+
+import io.grpc.Codec;
+import io.grpc.CompressorRegistry;
+import io.grpc.ForwardingServerCall;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import orders.metrics.MetricsRegistry;
+
+/**
+ * Compresses replies of the methods configured, when the client accepts gzip
+ * and the serialized reply is not smaller than the minimum size of the method.
+ * Small replies are sent uncompressed, gzip would only make them larger and
+ * slower. Compression of each message of a stream is decided separately.
+ *
+ * The server builder must use getCompressorRegistry() for the bytes and time
+ * of compression to be counted.
+ */
+public class CompressionInterceptor implements ServerInterceptor, MetricsRegistry.Collector {
+    static final Metadata.Key<String> ACCEPT_ENCODING_KEY = Metadata.Key.of("grpc-accept-encoding",
+            Metadata.ASCII_STRING_MARSHALLER);
+
+    private final CountingCompressor compressor = CountingCompressor.gzip();
+    private final CompressorRegistry registry = CompressorRegistry.newEmptyInstance();
+
+    /* Filled before the server starts, read only afterwards */
+    private final Map<String, MethodPolicy> methods = new HashMap<>();
+
+    public CompressionInterceptor() {
+        registry.register(compressor);
+        registry.register(Codec.Identity.NONE);
+    }
+
+    /**
+     * Compresses replies of the method not smaller than minBytes when
+     * serialized.
+     */
+    public CompressionInterceptor compress(MethodDescriptor<?, ?> method, int minBytes) {
+        methods.put(method.getFullMethodName(), new MethodPolicy(method, minBytes));
+        return this;
+    }
+
+    public CompressorRegistry getCompressorRegistry() {
+        return registry;
+    }
+
+    public CountingCompressor getCompressor() {
+        return compressor;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+            ServerCallHandler<ReqT, RespT> next) {
+        MethodPolicy policy = methods.get(call.getMethodDescriptor().getFullMethodName());
+        if (null == policy) {
+            return next.startCall(call, headers);
+        }
+
+        if (!accepts(headers.get(ACCEPT_ENCODING_KEY), compressor.getMessageEncoding())) {
+            policy.notAccepted.increment();
+            return next.startCall(call, headers);
+        }
+
+        return next.startCall(new ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT>(call) {
+            @Override
+            public void sendHeaders(Metadata headers) {
+                // must be set before headers, the encoding is sent in them
+                super.setCompression(compressor.getMessageEncoding());
+                super.sendHeaders(headers);
+            }
+
+            @Override
+            public void sendMessage(RespT message) {
+                // protobuf memoizes the size, the marshaller does not compute it again
+                boolean compress = !(message instanceof MessageLite)
+                        || ((MessageLite) message).getSerializedSize() >= policy.minBytes;
+                (compress ? policy.compressed : policy.uncompressed).increment();
+                super.setMessageCompression(compress);
+                super.sendMessage(message);
+            }
+        }, headers);
+    }
+
+    /**
+     * Checks the comma separated list of encodings the client accepts.
+     */
+    static boolean accepts(String acceptEncoding, String encoding) {
+        if (null == acceptEncoding) {
+            return false;
+        }
+        for (String accepted : acceptEncoding.split(",")) {
+            if (accepted.trim().equals(encoding)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void collect(MetricsRegistry.Writer writer) {
+        writer.type("orders_compression_messages_total", "counter", "Replies of compressed methods sent.");
+        methods.values().forEach(p -> {
+            writer.sample("orders_compression_messages_total", p.labels + ",compressed=\"true\"", p.compressed.sum());
+            writer.sample("orders_compression_messages_total", p.labels + ",compressed=\"false\"", p.uncompressed.sum());
+        });
+        writer.type("orders_compression_not_accepted_total", "counter", "Calls of clients not accepting gzip.");
+        methods.values().forEach(p -> writer.sample("orders_compression_not_accepted_total", p.labels,
+                p.notAccepted.sum()));
+
+        writer.type("orders_compression_input_bytes_total", "counter", "Bytes of replies before compression.");
+        writer.sample("orders_compression_input_bytes_total", null, compressor.getInputBytes());
+        writer.type("orders_compression_output_bytes_total", "counter", "Bytes of replies after compression.");
+        writer.sample("orders_compression_output_bytes_total", null, compressor.getOutputBytes());
+        writer.type("orders_compression_saved_bytes_total", "counter", "Bytes saved by compression of replies.");
+        writer.sample("orders_compression_saved_bytes_total", null,
+                compressor.getInputBytes() - compressor.getOutputBytes());
+        writer.type("orders_compression_seconds_total", "counter", "Time spent compressing replies.");
+        writer.sample("orders_compression_seconds_total", null, compressor.getNanos() / 1e9);
+    }
+
+    private static final class MethodPolicy {
+        final int minBytes;
+        final String labels;
+
+        final LongAdder compressed = new LongAdder();
+        final LongAdder uncompressed = new LongAdder();
+        final LongAdder notAccepted = new LongAdder();
+
+        MethodPolicy(MethodDescriptor<?, ?> method, int minBytes) {
+            this.minBytes = minBytes;
+            labels = "grpc_service=\"" + method.getServiceName() + "\",grpc_method=\"" + method.getBareMethodName()
+                    + "\"";
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package orders.compression;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.grpc.Codec;
+import io.grpc.Compressor;
+
+/**
+ * Compressor counting bytes before and after compression and time spent
+ * compressing. Compression runs on the thread writing the message, so the time
+ * is CPU time of the server.
+ */
+public final class CountingCompressor implements Compressor {
+    private final Compressor delegate;
+
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder inputBytes = new LongAdder();
+    private final LongAdder outputBytes = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+
+    public CountingCompressor(Compressor delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Counts gzip compression, the encoding supported by all gRPC clients.
+     */
+    public static CountingCompressor gzip() {
+        return new CountingCompressor(new Codec.Gzip());
+    }
+
+    @Override
+    public String getMessageEncoding() {
+        return delegate.getMessageEncoding();
+    }
+
+    @Override
+    public OutputStream compress(OutputStream os) throws IOException {
+        messages.increment();
+        OutputStream compressed = new CountingStream(os, outputBytes, null);
+        long start = System.nanoTime();
+        OutputStream compressing = delegate.compress(compressed);
+        nanos.add(System.nanoTime() - start);
+        return new CountingStream(compressing, inputBytes, nanos);
+    }
+
+    public long getMessageCount() {
+        return messages.sum();
+    }
+
+    /**
+     * Returns size of messages given to the compressor.
+     */
+    public long getInputBytes() {
+        return inputBytes.sum();
+    }
+
+    /**
+     * Returns size of messages written by the compressor.
+     */
+    public long getOutputBytes() {
+        return outputBytes.sum();
+    }
+
+    public long getNanos() {
+        return nanos.sum();
+    }
+
+    /**
+     * Counts bytes written and, when given, time spent in the stream.
+     */
+    private static final class CountingStream extends FilterOutputStream {
+        private final LongAdder bytes;
+        private final LongAdder nanos;
+
+        CountingStream(OutputStream out, LongAdder bytes, LongAdder nanos) {
+            super(out);
+            this.bytes = bytes;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            long start = null != nanos ? System.nanoTime() : 0;
+            out.write(b);
+            bytes.increment();
+            elapsed(start);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            long start = null != nanos ? System.nanoTime() : 0;
+            out.write(b, off, len);
+            bytes.add(len);
+            elapsed(start);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            long start = null != nanos ? System.nanoTime() : 0;
+            out.flush();
+            elapsed(start);
+        }
+
+        @Override
+        public void close() throws IOException {
+            // gzip finishes the deflate stream on close
+            long start = null != nanos ? System.nanoTime() : 0;
+            out.close();
+            elapsed(start);
+        }
+
+        private void elapsed(long start) {
+            if (null != nanos) {
+                nanos.add(System.nanoTime() - start);
+            }
+        }
+    }
+}
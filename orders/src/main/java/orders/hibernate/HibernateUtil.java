@@ -1,20 +1,45 @@
 package orders.hibernate;
 
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
 import org.hibernate.HibernateException;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.BaseSessionEventListener;
+import org.hibernate.Cache;
 import org.hibernate.boot.MetadataSources;
 import org.hibernate.boot.registry.StandardServiceRegistry;
 import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.stat.Statistics;
 
 public class HibernateUtil {
 
+    /**
+     * System property selecting the configuration file of a deployment profile,
+     * e.g. hibernate-pg.cfg.xml. Any hibernate.* system property overrides the
+     * value from the configuration file.
+     */
+    public static final String CONFIG_PROPERTY = "orders.hibernate.config";
+    static final String DEFAULT_CONFIG = "hibernate.cfg.xml";
+
 private static final SessionFactory sessionFactory;
+    private static final LongAdder openSessions = new LongAdder();
+
+    /**
+     * Statements executed longer than orders.sql.slowMillis are logged.
+     */
+    private static final QueryStats queryStats = new QueryStats(Long.getLong("orders.sql.slowMillis", 200),
+            TimeUnit.MILLISECONDS);
 
     static {
         // A SessionFactory is set up once for an application!
         final StandardServiceRegistry registry = new StandardServiceRegistryBuilder()
-            .configure() // configures settings from hibernate.cfg.xml
+            .configure(System.getProperty(CONFIG_PROPERTY, DEFAULT_CONFIG)) // configures settings from the file of -Dorders.hibernate.config, hibernate.cfg.xml by default
+            .applySettings(getSystemOverrides())
             .build();
 
         try {
@@ -30,6 +55,78 @@ private static final SessionFactory sessionFactory;
 
     public static Session getSession()
             throws HibernateException {
-        return sessionFactory.openSession();
+        StatementTimer timer = new StatementTimer(queryStats);
+        Session session = sessionFactory.withOptions()
+                .statementInspector(timer)
+                .eventListeners(new OpenSessionCounter(), timer)
+                .openSession();
+        openSessions.increment();
+        return session;
+    }
+
+    /**
+     * Returns number of sessions opened and not closed yet. A steadily growing
+     * value means sessions are leaking.
+     */
+    public static long getOpenSessionCount() {
+        return openSessions.sum();
+    }
+
+    /**
+     * Returns execution times of statements run by sessions of getSession().
+     */
+    public static QueryStats getQueryStats() {
+        return queryStats;
+    }
+
+    /**
+     * Returns the second-level cache, e.g. to evict entities changed bypassing
+     * Hibernate.
+     */
+    public static Cache getCache() {
+        return sessionFactory.getCache();
+    }
+
+    /**
+     * Returns statistics of the session factory, they are collected only when
+     * enabled.
+     */
+    public static Statistics getStatistics() {
+        return sessionFactory.getStatistics();
+    }
+
+    /**
+     * Returns metrics of the connection pool or null if connections are not
+     * provided by HikariConnectionProvider.
+     */
+    public static PoolMetrics getPoolMetrics() {
+        ConnectionProvider provider = sessionFactory.unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry()
+                .getService(ConnectionProvider.class);
+        return provider.isUnwrappableAs(PoolMetrics.class) ? provider.unwrap(PoolMetrics.class) : null;
+    }
+
+    /**
+     * Closes the session factory together with the connection pool.
+     */
+    public static void close() {
+        sessionFactory.close();
+    }
+
+    private static Properties getSystemOverrides() {
+        Properties overrides = new Properties();
+        System.getProperties().forEach((key, value) -> {
+            if (key.toString().startsWith("hibernate.")) {
+                overrides.put(key, value);
+            }
+        });
+        return overrides;
+    }
+
+    private static final class OpenSessionCounter extends BaseSessionEventListener {
+        @Override
+        public void end() {
+            openSessions.decrement();
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,103 @@
+package orders.hibernate;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.service.UnknownUnwrapTypeException;
+import org.hibernate.service.spi.Configurable;
+import org.hibernate.service.spi.Stoppable;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * Provides JDBC connections from a HikariCP pool.
+ * Pool settings are taken from hibernate.hikari.* properties, the rest of the
+ * name is a HikariCP property, e.g. hibernate.hikari.maximumPoolSize.
+ */
+public class HikariConnectionProvider implements ConnectionProvider, Configurable, Stoppable {
+    static final String POOL_SETTINGS_PREFIX = "hibernate.hikari.";
+
+    private final PoolMetrics metrics = new PoolMetrics();
+    private HikariDataSource dataSource;
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public void configure(Map configurationValues) {
+        Map<?, ?> settings = configurationValues;
+
+        Properties poolProperties = new Properties();
+        settings.forEach((key, value) -> {
+            String name = key.toString();
+            if (name.startsWith(POOL_SETTINGS_PREFIX)) {
+                poolProperties.setProperty(name.substring(POOL_SETTINGS_PREFIX.length()), value.toString());
+            }
+        });
+
+        HikariConfig config = new HikariConfig(poolProperties);
+        config.setJdbcUrl(getString(settings, AvailableSettings.URL));
+        config.setUsername(getString(settings, AvailableSettings.USER));
+        config.setPassword(getString(settings, AvailableSettings.PASS));
+        String driver = getString(settings, AvailableSettings.DRIVER);
+        if (null != driver) {
+            config.setDriverClassName(driver);
+        }
+        config.setMetricsTrackerFactory(metrics);
+
+        dataSource = new HikariDataSource(config);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return dataSource.getConnection();
+    }
+
+    @Override
+    public void closeConnection(Connection conn) throws SQLException {
+        conn.close();
+    }
+
+    @Override
+    public boolean supportsAggressiveRelease() {
+        return false;
+    }
+
+    @Override
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public boolean isUnwrappableAs(Class unwrapType) {
+        return unwrapType.isAssignableFrom(getClass())
+                || unwrapType.isAssignableFrom(HikariDataSource.class)
+                || unwrapType.isAssignableFrom(PoolMetrics.class);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T unwrap(Class<T> unwrapType) {
+        if (unwrapType.isAssignableFrom(getClass())) {
+            return (T) this;
+        } else if (unwrapType.isAssignableFrom(HikariDataSource.class)) {
+            return (T) dataSource;
+        } else if (unwrapType.isAssignableFrom(PoolMetrics.class)) {
+            return (T) metrics;
+        }
+        throw new UnknownUnwrapTypeException(unwrapType);
+    }
+
+    @Override
+    public void stop() {
+        if (null != dataSource) {
+            dataSource.close();
+        }
+    }
+
+    private static String getString(Map<?, ?> settings, String name) {
+        Object value = settings.get(name);
+        return null != value ? value.toString() : null;
+    }
+}
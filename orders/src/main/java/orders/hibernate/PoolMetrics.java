@@ -0,0 +1,100 @@
+package orders.hibernate;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+/**
+ * Collects metrics of the JDBC connection pool: connections usage and time
+ * spent waiting for a connection.
+ */
+public class PoolMetrics implements MetricsTrackerFactory {
+    private volatile PoolStats poolStats;
+
+    private final LongAdder acquireCount = new LongAdder();
+    private final LongAdder acquireNanos = new LongAdder();
+    private final LongAccumulator acquireMaxNanos = new LongAccumulator(Long::max, 0);
+    private final LongAdder usageMillis = new LongAdder();
+    private final LongAdder timeoutCount = new LongAdder();
+
+    PoolMetrics() {
+    }
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats stats) {
+        poolStats = stats;
+        return new IMetricsTracker() {
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                acquireCount.increment();
+                acquireNanos.add(elapsedAcquiredNanos);
+                acquireMaxNanos.accumulate(elapsedAcquiredNanos);
+            }
+
+            @Override
+            public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+                usageMillis.add(elapsedBorrowedMillis);
+            }
+
+            @Override
+            public void recordConnectionTimeout() {
+                timeoutCount.increment();
+            }
+        };
+    }
+
+    public int getActiveConnections() {
+        PoolStats stats = poolStats;
+        return null != stats ? stats.getActiveConnections() : 0;
+    }
+
+    public int getIdleConnections() {
+        PoolStats stats = poolStats;
+        return null != stats ? stats.getIdleConnections() : 0;
+    }
+
+    /**
+     * Returns number of threads waiting for a connection.
+     */
+    public int getPendingThreads() {
+        PoolStats stats = poolStats;
+        return null != stats ? stats.getPendingThreads() : 0;
+    }
+
+    public int getMaxConnections() {
+        PoolStats stats = poolStats;
+        return null != stats ? stats.getMaxConnections() : 0;
+    }
+
+    public long getAcquireCount() {
+        return acquireCount.sum();
+    }
+
+    /**
+     * Returns total time spent waiting for connections.
+     */
+    public long getAcquireNanos() {
+        return acquireNanos.sum();
+    }
+
+    public long getAcquireMaxNanos() {
+        return acquireMaxNanos.get();
+    }
+
+    /**
+     * Returns total time connections were borrowed for.
+     */
+    public long getUsageMillis() {
+        return usageMillis.sum();
+    }
+
+    /**
+     * Returns number of requests that timed out waiting for a connection.
+     */
+    public long getTimeoutCount() {
+        return timeoutCount.sum();
+    }
+}
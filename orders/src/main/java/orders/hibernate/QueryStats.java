@@ -0,0 +1,187 @@
+package orders.hibernate;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Execution time of SQL statements aggregated by normalized statement text.
+ * Literals are replaced with placeholders and IN lists of any length are
+ * collapsed, so each query of the application gets one entry. Statements
+ * slower than the threshold are logged with the number of bind parameters.
+ */
+public class QueryStats {
+    private static final Logger logger = Logger.getLogger(QueryStats.class.getName());
+
+    /* Bounds of memory used by distinct statements */
+    private static final int MAX_STATEMENTS = 10_000;
+    private static final int MAX_QUERIES = 1_000;
+    private static final String OTHER = "<other>";
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+    private static final Pattern PARAMETER_LIST = Pattern.compile("(?i)\\bin\\s*\\(\\s*\\?(?:\\s*,\\s*\\?)*\\s*\\)");
+
+    private final long slowNanos;
+
+    /* Entries by statement text as executed, to skip normalization */
+    private final ConcurrentMap<String, Query> statements = new ConcurrentHashMap<>();
+    /* Entries by normalized text */
+    private final ConcurrentMap<String, Query> queries = new ConcurrentHashMap<>();
+
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder executionNanos = new LongAdder();
+    private final LongAdder slowExecutions = new LongAdder();
+
+    /**
+     * Timing of one normalized statement.
+     */
+    public static final class Query {
+        private final String sql;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0);
+
+        Query(String sql) {
+            this.sql = sql;
+        }
+
+        void record(long elapsed) {
+            count.increment();
+            nanos.add(elapsed);
+            maxNanos.accumulate(elapsed);
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getTotalNanos() {
+            return nanos.sum();
+        }
+
+        public long getMaxNanos() {
+            return maxNanos.get();
+        }
+    }
+
+    /**
+     * @param slowThreshold statements taking longer are logged, 0 logs all
+     */
+    public QueryStats(long slowThreshold, TimeUnit unit) {
+        slowNanos = unit.toNanos(slowThreshold);
+    }
+
+    void record(String sql, long elapsedNanos) {
+        Query query = statements.get(sql);
+        if (null == query) {
+            query = queries.get(normalize(sql));
+            if (null == query) {
+                query = queries.size() < MAX_QUERIES ? queries.computeIfAbsent(normalize(sql), Query::new)
+                        : queries.computeIfAbsent(OTHER, Query::new);
+            }
+            if (statements.size() < MAX_STATEMENTS) {
+                statements.putIfAbsent(sql, query);
+            }
+        }
+
+        query.record(elapsedNanos);
+        executions.increment();
+        executionNanos.add(elapsedNanos);
+
+        if (elapsedNanos >= slowNanos) {
+            slowExecutions.increment();
+            logger.warning(String.format("Slow statement %.1f ms, %d binds: %s", elapsedNanos / 1e6,
+                    countBinds(sql), sql));
+        }
+    }
+
+    /**
+     * Returns up to the number given of statements with the longest execution
+     * time, slowest first.
+     */
+    public List<Query> getSlowest(int limit) {
+        return top(Comparator.comparingLong(Query::getMaxNanos), limit);
+    }
+
+    /**
+     * Returns up to the number given of statements with the largest total
+     * execution time, which usually matters more than a single slow execution.
+     */
+    public List<Query> getMostExpensive(int limit) {
+        return top(Comparator.comparingLong(Query::getTotalNanos), limit);
+    }
+
+    public long getExecutionCount() {
+        return executions.sum();
+    }
+
+    public long getExecutionNanos() {
+        return executionNanos.sum();
+    }
+
+    public long getSlowExecutionCount() {
+        return slowExecutions.sum();
+    }
+
+    /**
+     * Returns the slowest statements as a text table.
+     */
+    public String report(int limit) {
+        StringBuilder sb = new StringBuilder(String.format("%10s %12s %12s %12s  %s%n",
+                "count", "total ms", "avg ms", "max ms", "statement"));
+        getSlowest(limit).forEach(q -> {
+            long count = q.getCount();
+            sb.append(String.format("%10d %12.1f %12.3f %12.3f  %s%n", count, q.getTotalNanos() / 1e6,
+                    q.getTotalNanos() / 1e6 / Math.max(1, count), q.getMaxNanos() / 1e6, q.getSql()));
+        });
+        return sb.toString();
+    }
+
+    public void reset() {
+        statements.clear();
+        queries.clear();
+        executions.reset();
+        executionNanos.reset();
+        slowExecutions.reset();
+    }
+
+    private List<Query> top(Comparator<Query> comparator, int limit) {
+        List<Query> all = new ArrayList<>(queries.values());
+        all.sort(comparator.reversed());
+        return all.subList(0, Math.min(limit, all.size()));
+    }
+
+    static String normalize(String sql) {
+        String s = WHITESPACE.matcher(sql.trim()).replaceAll(" ");
+        s = STRING_LITERAL.matcher(s).replaceAll("?");
+        s = NUMBER_LITERAL.matcher(s).replaceAll("?");
+        return PARAMETER_LIST.matcher(s).replaceAll("in (?...)");
+    }
+
+    static int countBinds(String sql) {
+        int binds = 0;
+        boolean quoted = false;
+        for (int i = 0; i < sql.length(); ++i) {
+            char c = sql.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
+            } else if (c == '?' && !quoted) {
+                ++binds;
+            }
+        }
+        return binds;
+    }
+}
@@ -0,0 +1,52 @@
+package orders.hibernate;
+
+import org.hibernate.BaseSessionEventListener;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Times JDBC executions of a session. The statement text is taken from the
+ * inspector, which sees every statement when it is prepared; batches are
+ * attributed to the last statement prepared. A session is used by one thread
+ * at a time, so no synchronization is needed.
+ */
+final class StatementTimer extends BaseSessionEventListener implements StatementInspector {
+    private final QueryStats stats;
+    private String sql;
+    private long startNanos;
+
+    StatementTimer(QueryStats stats) {
+        this.stats = stats;
+    }
+
+    @Override
+    public String inspect(String sql) {
+        this.sql = sql;
+        return sql;
+    }
+
+    @Override
+    public void jdbcExecuteStatementStart() {
+        startNanos = System.nanoTime();
+    }
+
+    @Override
+    public void jdbcExecuteStatementEnd() {
+        stop();
+    }
+
+    @Override
+    public void jdbcExecuteBatchStart() {
+        startNanos = System.nanoTime();
+    }
+
+    @Override
+    public void jdbcExecuteBatchEnd() {
+        stop();
+    }
+
+    private void stop() {
+        if (null != sql) {
+            stats.record(sql, System.nanoTime() - startNanos);
+        }
+    }
+}
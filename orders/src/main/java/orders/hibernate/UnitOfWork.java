@@ -0,0 +1,189 @@
+package orders.hibernate;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.hibernate.FlushMode;
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+import io.grpc.Context;
+import io.grpc.Contexts;
+import io.grpc.Deadline;
+import io.grpc.StatusRuntimeException;
+
+/**
+ * Hibernate session of a single call.
+ * The session is opened on first use and is closed, rolling back a transaction
+ * left active, when the unit of work is closed. UnitOfWorkInterceptor binds a
+ * unit of work to the context of every call and closes it when the call ends.
+ * <p>
+ * Statements of the session time out when the deadline of the call passes
+ * and the running statement is cancelled when the call is cancelled. No
+ * session is opened for a call already cancelled.
+ */
+public final class UnitOfWork implements AutoCloseable, Context.CancellationListener {
+    static final Context.Key<UnitOfWork> CONTEXT_KEY = Context.key("unitOfWork");
+
+    private static final Logger logger = Logger.getLogger(UnitOfWork.class.getName());
+    private static final String QUERY_TIMEOUT_HINT = "jakarta.persistence.query.timeout";
+    private static final LongAdder skipped = new LongAdder();
+    private static final LongAdder cancelledQueries = new LongAdder();
+
+    private Context context;
+    private Session session;
+    private boolean closed;
+
+    /**
+     * Returns how many times work of cancelled calls has been skipped, a
+     * handler has not been run or a session has not been opened.
+     */
+    public static long getSkippedCount() {
+        return skipped.sum();
+    }
+
+    /**
+     * Returns how many sessions have been open when their calls have been
+     * cancelled or their deadlines have passed. The statement running, if
+     * any, has been cancelled; sessions between statements are counted too.
+     */
+    public static long getCancelledQueryCount() {
+        return cancelledQueries.sum();
+    }
+
+    static void skipped() {
+        skipped.increment();
+    }
+
+    /**
+     * Returns the unit of work bound to the current context.
+     *
+     * @throws IllegalStateException if no unit of work is bound
+     */
+    public static UnitOfWork current() {
+        UnitOfWork work = CONTEXT_KEY.get();
+        if (null == work) {
+            throw new IllegalStateException("No unit of work is bound to the context");
+        }
+        return work;
+    }
+
+    /**
+     * Returns context with this unit of work bound to it. The session is
+     * bound to the deadline and cancellation of the context given.
+     */
+    public Context bind(Context context) {
+        this.context = context;
+        return context.withValue(CONTEXT_KEY, this);
+    }
+
+    /**
+     * Returns the session of the call, opening it if needed.
+     */
+    public Session session() {
+        return open(false);
+    }
+
+    /**
+     * Returns the session of the call, a newly opened session does not track
+     * changes of the entities loaded and is never flushed.
+     */
+    public Session readOnlySession() {
+        return open(true);
+    }
+
+    private synchronized Session open(boolean readOnly) {
+        if (closed) {
+            throw new IllegalStateException("Unit of work is closed");
+        }
+
+        if (null == session) {
+            Integer timeoutMillis = getQueryTimeoutMillis();
+            session = HibernateUtil.getSession();
+            if (readOnly) {
+                session.setDefaultReadOnly(true);
+                session.setHibernateFlushMode(FlushMode.MANUAL);
+            }
+            if (null != timeoutMillis) {
+                session.setProperty(QUERY_TIMEOUT_HINT, timeoutMillis);
+            }
+            if (null != context) {
+                context.addListener(this, MoreExecutors.directExecutor());
+            }
+        }
+        return session;
+    }
+
+    /**
+     * Returns time left to the deadline of the call rounded up to whole
+     * seconds, JDBC query timeouts have, or null if the call has no deadline.
+     *
+     * @throws StatusRuntimeException if the call is cancelled
+     */
+    private Integer getQueryTimeoutMillis() {
+        if (null == context) {
+            return null;
+        }
+
+        Deadline deadline = context.getDeadline();
+        long millis = null != deadline ? deadline.timeRemaining(TimeUnit.MILLISECONDS) : Long.MAX_VALUE;
+        if (context.isCancelled() || millis <= 0) {
+            skipped.increment();
+            throw (context.isCancelled()
+                    ? Contexts.statusFromCancelled(context)
+                    : io.grpc.Status.DEADLINE_EXCEEDED).asRuntimeException();
+        }
+        if (null == deadline) {
+            return null;
+        }
+        return (int) Math.min(Integer.MAX_VALUE / 1000, (millis + 999) / 1000) * 1000;
+    }
+
+    /**
+     * Cancels the statement running when the call is cancelled, the handler
+     * fails on the statement and the call ends without waiting for it.
+     */
+    @Override
+    public synchronized void cancelled(Context context) {
+        if (null == session || closed) {
+            return;
+        }
+
+        cancelledQueries.increment();
+        try {
+            session.cancelQuery();
+        } catch (HibernateException e) {
+            logger.log(Level.FINE, "Statement cancellation failed", e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        if (null == session) {
+            return;
+        }
+
+        if (null != context) {
+            context.removeListener(this);
+        }
+        try {
+            Transaction transaction = session.getTransaction();
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+        } finally {
+            session.close();
+            session = null;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package orders.hibernate;
+
+import java.util.logging.Logger;
+
+import io.grpc.Context;
+import io.grpc.Contexts;
+import io.grpc.ForwardingServerCallListener.SimpleForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+
+/**
+ * Binds a unit of work to every call and closes it when the call completes, is
+ * cancelled or its handler fails, so sessions never outlive calls. Handlers of
+ * calls cancelled or past their deadlines before the handlers run are skipped,
+ * failures of handlers of cancelled calls are not reported, as nobody waits
+ * for their results.
+ */
+public class UnitOfWorkInterceptor implements ServerInterceptor {
+  private static final Logger logger = Logger.getLogger(UnitOfWorkInterceptor.class.getName());
+
+  @Override
+  public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> serverCall, Metadata metadata,
+      ServerCallHandler<ReqT, RespT> serverCallHandler) {
+    UnitOfWork work = new UnitOfWork();
+    Context ctx = work.bind(Context.current());
+
+    ServerCall.Listener<ReqT> listener;
+    try {
+      listener = Contexts.interceptCall(ctx, serverCall, metadata, serverCallHandler);
+    } catch (RuntimeException e) {
+      work.close();
+      throw e;
+    }
+
+    return new SimpleForwardingServerCallListener<ReqT>(listener) {
+      @Override
+      public void onMessage(ReqT message) {
+        try {
+          super.onMessage(message);
+        } catch (RuntimeException e) {
+          work.close();
+          rethrowUnlessCancelled(ctx, e);
+        }
+      }
+
+      @Override
+      public void onHalfClose() {
+        if (ctx.isCancelled()) {
+          // the call has been cancelled while waiting for an executor thread
+          UnitOfWork.skipped();
+          return;
+        }
+
+        try {
+          super.onHalfClose();
+        } catch (RuntimeException e) {
+          work.close();
+          rethrowUnlessCancelled(ctx, e);
+        }
+      }
+
+      @Override
+      public void onReady() {
+        try {
+          super.onReady();
+        } catch (RuntimeException e) {
+          work.close();
+          rethrowUnlessCancelled(ctx, e);
+        }
+      }
+
+      @Override
+      public void onCancel() {
+        try {
+          super.onCancel();
+        } finally {
+          work.close();
+        }
+      }
+
+      @Override
+      public void onComplete() {
+        try {
+          super.onComplete();
+        } finally {
+          work.close();
+        }
+      }
+    };
+  }
+
+  private static void rethrowUnlessCancelled(Context ctx, RuntimeException e) {
+    if (!ctx.isCancelled()) {
+      throw e;
+    }
+    logger.fine("Cancelled call failed: " + e);
+  }
+}
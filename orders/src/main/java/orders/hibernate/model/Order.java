@@ -3,23 +3,41 @@ package orders.hibernate.model;
 import java.time.Instant;
 import java.util.Set;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.DynamicUpdate;
+
+import jakarta.persistence.Cacheable;
 import jakarta.persistence.Entity;
 import jakarta.persistence.Table;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
+import jakarta.persistence.SequenceGenerator;
 import jakarta.persistence.OneToOne;
 import jakarta.persistence.ManyToMany;
 import jakarta.persistence.Basic;
 import jakarta.persistence.CascadeType;
 import jakarta.persistence.Column;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.JoinTable;
+import jakarta.persistence.Version;
 
 @Entity
-@Table( name = "orders" )
+// Orders of users are listed and counted by user, newest first. Postgres
+// replaces the index by a partial one of active orders, see import-pg.sql
+@Table( name = "orders", indexes = @Index(name = "orders_user_id_idx", columnList = "user_id, id") )
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "orders-order")
+// Updates set changed columns only
+@DynamicUpdate
 public class Order {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    // Pooled sequence lets Hibernate batch inserts, IDENTITY would disable it
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "orders_seq")
+    @SequenceGenerator(name = "orders_seq", sequenceName = "orders_seq", allocationSize = 50)
     private Long id;
     private String comment;
 
@@ -41,9 +59,22 @@ public class Order {
     private Integer deletedBy;
     private Instant deletedAt;
 
+    // Optimistic lock, also incremented by Orders.Patch
+    @Version
+    private long version;
+
+    // Names are given explicitly since Orders.Patch updates links with SQL
     @ManyToMany(cascade = CascadeType.DETACH)
+    // The primary key (orders_id, products_id) serves lookups by order,
+    // products_id is indexed for the foreign key to products
+    @JoinTable(name = "orders_products",
+            joinColumns = @JoinColumn(name = "orders_id"),
+            inverseJoinColumns = @JoinColumn(name = "products_id"),
+            indexes = @Index(name = "orders_products_products_id_idx", columnList = "products_id"))
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "orders-order-products")
     private Set<Product> products;
 
+    // address_id is indexed by the unique constraint of the one-to-one
     @OneToOne(optional = false, cascade = CascadeType.ALL)
     private Address address;
 
@@ -51,6 +82,10 @@ public class Order {
         return id;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
     public int getUser() {
         return user;
     }
@@ -0,0 +1,70 @@
+package orders.hibernate.model;
+
+import java.time.Instant;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Table;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Basic;
+import jakarta.persistence.Column;
+
+/**
+ * Change of an order written in the transaction of the change, so watchers
+ * can replay changes they missed, also after a restart. The id is the
+ * sequence of the change.
+ */
+@Entity
+@Table( name = "order_changes", indexes = @Index(name = "order_changes_created_at_idx", columnList = "createdAt") )
+public class OrderChange {
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "order_changes_seq")
+    @SequenceGenerator(name = "order_changes_seq", sequenceName = "order_changes_seq", allocationSize = 50)
+    private Long id;
+
+    @Column(name="user_id", nullable = false)
+    private int user;
+
+    private Integer previousUser;
+
+    @Basic(optional=false)
+    private Instant createdAt;
+
+    // Serialized OrderEvent without the sequence
+    @Basic(optional=false)
+    @Column(length = 65535)
+    private byte[] event;
+
+    protected OrderChange() {
+    }
+
+    public OrderChange(int user, Integer previousUser, Instant createdAt, byte[] event) {
+        this.user = user;
+        this.previousUser = previousUser;
+        this.createdAt = createdAt;
+        this.event = event;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public int getUser() {
+        return user;
+    }
+
+    public Integer getPreviousUser() {
+        return previousUser;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public byte[] getEvent() {
+        return event;
+    }
+}
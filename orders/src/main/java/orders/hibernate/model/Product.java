@@ -2,6 +2,10 @@ package orders.hibernate.model;
 
 import java.util.Set;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
+import jakarta.persistence.Cacheable;
 import jakarta.persistence.Entity;
 import jakarta.persistence.Table;
 import jakarta.persistence.Id;
@@ -11,6 +15,9 @@ import jakarta.persistence.ManyToMany;
 
 @Entity
 @Table( name = "products" )
+// Read-mostly, orders refer to products by id
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "orders-product")
 public class Product {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
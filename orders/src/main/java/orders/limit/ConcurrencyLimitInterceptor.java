@@ -0,0 +1,214 @@
+package orders.limit;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.grpc.Context;
+import io.grpc.Deadline;
+import io.grpc.ForwardingServerCall;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+import orders.metrics.MetricsRegistry;
+
+/**
+ * Limits calls of the methods configured in flight at once, rejecting calls
+ * above the limit with RESOURCE_EXHAUSTED instead of queueing them. The limit
+ * adapts to latency of the calls, see VegasLimit. Reads are admitted up to a
+ * share of the limit only, so the rest of it is left for writes when reads
+ * overload the server.
+ */
+public class ConcurrencyLimitInterceptor implements ServerInterceptor, MetricsRegistry.Collector {
+    public enum Priority {
+        READ,
+        WRITE
+    }
+
+    private final VegasLimit limit;
+    private final int readPercent;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /* Filled before the server starts, read only afterwards */
+    private final Map<String, Priority> methods = new HashMap<>();
+    private final Map<Priority, LongAdder> admitted = new EnumMap<>(Priority.class);
+    private final Map<Priority, LongAdder> rejected = new EnumMap<>(Priority.class);
+
+    /**
+     * @param readPercent share of the limit reads may take, in percent
+     */
+    public ConcurrencyLimitInterceptor(int initialLimit, int maxLimit, int readPercent) {
+        this.limit = new VegasLimit(initialLimit, 1, maxLimit);
+        this.readPercent = Math.max(1, Math.min(100, readPercent));
+        for (Priority priority : Priority.values()) {
+            admitted.put(priority, new LongAdder());
+            rejected.put(priority, new LongAdder());
+        }
+    }
+
+    /**
+     * Limits calls of the method, which must be a method whose latency does
+     * not depend on the client, e.g. not a stream the client reads slowly.
+     */
+    public ConcurrencyLimitInterceptor limit(MethodDescriptor<?, ?> method, Priority priority) {
+        methods.put(method.getFullMethodName(), priority);
+        return this;
+    }
+
+    public int getLimit() {
+        return limit.getLimit();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getRejectedCount(Priority priority) {
+        return rejected.get(priority).sum();
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+            ServerCallHandler<ReqT, RespT> next) {
+        Priority priority = methods.get(call.getMethodDescriptor().getFullMethodName());
+        if (null == priority) {
+            return next.startCall(call, headers);
+        }
+
+        int started = tryAcquire(priority);
+        if (started < 0) {
+            rejected.get(priority).increment();
+            call.close(Status.RESOURCE_EXHAUSTED.withDescription("Server is overloaded, retry later"),
+                    new Metadata());
+            return new ServerCall.Listener<ReqT>() {
+                // noop
+            };
+        }
+        admitted.get(priority).increment();
+
+        Permit permit = new Permit(started);
+        ServerCall.Listener<ReqT> listener;
+        try {
+            listener = next.startCall(new ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT>(call) {
+                @Override
+                public void close(Status status, Metadata trailers) {
+                    permit.status = status;
+                    super.close(status, trailers);
+                }
+            }, headers);
+        } catch (RuntimeException e) {
+            permit.cancel();
+            throw e;
+        }
+
+        return new ForwardingServerCallListener.SimpleForwardingServerCallListener<ReqT>(listener) {
+            @Override
+            public void onComplete() {
+                try {
+                    super.onComplete();
+                } finally {
+                    permit.release(isOverload(permit.status));
+                }
+            }
+
+            @Override
+            public void onCancel() {
+                try {
+                    super.onCancel();
+                } finally {
+                    Deadline deadline = Context.current().getDeadline();
+                    if (null != deadline && deadline.isExpired()) {
+                        permit.release(true);
+                    } else {
+                        // cancelled by the client, the latency is not known
+                        permit.cancel();
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns calls in flight including the call admitted or -1 if the call
+     * is rejected.
+     */
+    private int tryAcquire(Priority priority) {
+        int max = limit.getLimit();
+        if (Priority.READ == priority) {
+            max = Math.max(1, max * readPercent / 100);
+        }
+        while (true) {
+            int current = inFlight.get();
+            if (current >= max) {
+                return -1;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return current + 1;
+            }
+        }
+    }
+
+    private static boolean isOverload(Status status) {
+        if (null == status) {
+            return false;
+        }
+        switch (status.getCode()) {
+            case DEADLINE_EXCEEDED:
+            case RESOURCE_EXHAUSTED:
+            case UNAVAILABLE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public void collect(MetricsRegistry.Writer writer) {
+        writer.type("orders_concurrency_limit", "gauge", "Calls of limited methods allowed in flight at once.");
+        writer.sample("orders_concurrency_limit", null, limit.getLimit());
+        writer.type("orders_concurrency_in_flight", "gauge", "Calls of limited methods in flight.");
+        writer.sample("orders_concurrency_in_flight", null, inFlight.get());
+        writer.type("orders_concurrency_admitted_total", "counter", "Calls admitted under the limit.");
+        admitted.forEach((priority, count) -> writer.sample("orders_concurrency_admitted_total",
+                "priority=\"" + priority.name().toLowerCase(Locale.ROOT) + "\"", count.sum()));
+        writer.type("orders_concurrency_rejected_total", "counter",
+                "Calls rejected with RESOURCE_EXHAUSTED above the limit.");
+        rejected.forEach((priority, count) -> writer.sample("orders_concurrency_rejected_total",
+                "priority=\"" + priority.name().toLowerCase(Locale.ROOT) + "\"", count.sum()));
+    }
+
+    /**
+     * Place of an admitted call, released once when the call ends.
+     */
+    private final class Permit {
+        private final long startNanos = System.nanoTime();
+        private final int started;
+        private final AtomicBoolean released = new AtomicBoolean();
+        volatile Status status;
+
+        Permit(int started) {
+            this.started = started;
+        }
+
+        void release(boolean dropped) {
+            if (released.compareAndSet(false, true)) {
+                inFlight.decrementAndGet();
+                limit.sample(System.nanoTime() - startNanos, started, dropped);
+            }
+        }
+
+        void cancel() {
+            if (released.compareAndSet(false, true)) {
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+}
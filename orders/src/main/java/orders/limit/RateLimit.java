@@ -0,0 +1,64 @@
+package orders.limit;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rate of calls allowed, on average, and the number of calls allowed at once
+ * after a pause.
+ */
+public final class RateLimit {
+    public static final RateLimit UNLIMITED = new RateLimit();
+
+    final double perSecond;
+    final int burst;
+    /* Time a call takes from the bucket */
+    final long intervalNanos;
+
+    public RateLimit(double perSecond, int burst) {
+        if (!(perSecond > 0) || burst < 1) {
+            throw new IllegalArgumentException("Rate and burst must be positive");
+        }
+        this.perSecond = perSecond;
+        this.burst = burst;
+        this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / perSecond));
+    }
+
+    private RateLimit() {
+        perSecond = Double.POSITIVE_INFINITY;
+        burst = Integer.MAX_VALUE;
+        intervalNanos = 0;
+    }
+
+    /**
+     * Parses "rate[/burst]", e.g. "50/100" for 50 calls per second with
+     * bursts of 100 calls, or "unlimited". The burst is the rate rounded up
+     * by default.
+     */
+    public static RateLimit parse(String spec) {
+        String s = spec.trim();
+        if ("unlimited".equals(s)) {
+            return UNLIMITED;
+        }
+
+        int slash = s.indexOf('/');
+        try {
+            double perSecond = Double.parseDouble(slash < 0 ? s : s.substring(0, slash));
+            int burst = slash < 0 ? (int) Math.ceil(perSecond) : Integer.parseInt(s.substring(slash + 1).trim());
+            return new RateLimit(perSecond, burst);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid rate limit " + spec, e);
+        }
+    }
+
+    /**
+     * Returns whether this limit allows more calls than the other one.
+     */
+    boolean exceeds(RateLimit other) {
+        return perSecond > other.perSecond || (perSecond == other.perSecond && burst > other.burst);
+    }
+
+    @Override
+    public String toString() {
+        return this == UNLIMITED ? "unlimited" : perSecond + "/" + burst;
+    }
+}
@@ -0,0 +1,172 @@
+package orders.limit;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+import jwtauth.AuthInfo;
+import jwtauth.Constant;
+import orders.metrics.MetricsRegistry;
+
+/**
+ * Limits the rate of calls of every client to every method, by a token bucket
+ * of the client and the method. Limits are configured per role, for all
+ * methods or a single one; a client gets the most generous limit of its roles,
+ * clients without limits for their roles get the limits of the "*" role.
+ * Calls over the limit fail with RESOURCE_EXHAUSTED and the time to retry
+ * after in grpc-retry-pushback-ms trailer. Calls without a client identifier
+ * are not limited.
+ *
+ * Must run after JwtServerInterceptor, which sets the client identifier.
+ */
+public class RateLimitInterceptor implements ServerInterceptor, MetricsRegistry.Collector {
+    public static final String ANY_ROLE = "*";
+    static final Metadata.Key<String> RETRY_PUSHBACK_KEY = Metadata.Key.of("grpc-retry-pushback-ms",
+            Metadata.ASCII_STRING_MARSHALLER);
+
+    /* Limits by role, for all methods */
+    private final Map<String, RateLimit> roleLimits = new HashMap<>();
+    /* Limits by method full name and role */
+    private final Map<String, Map<String, RateLimit>> methodLimits = new HashMap<>();
+
+    private final RateLimiter limiter = new RateLimiter(System.nanoTime());
+    private final ConcurrentMap<String, Integer> methodIds = new ConcurrentHashMap<>();
+    private final AtomicInteger nextMethodId = new AtomicInteger();
+    private final ConcurrentMap<String, LongAdder> throttled = new ConcurrentHashMap<>();
+
+    /**
+     * Parses limits separated by semicolons, "role=limit" for all methods or
+     * "role:service/method=limit" for a single method, where the limit is
+     * parsed by RateLimit.parse(), e.g.
+     * "Admin=unlimited; *=100/200; *:orders.Orders/CreateBatch=1/5".
+     */
+    public static RateLimitInterceptor parse(String spec) {
+        RateLimitInterceptor interceptor = new RateLimitInterceptor();
+        for (String rule : spec.split(";")) {
+            if (rule.isBlank()) {
+                continue;
+            }
+            int eq = rule.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Invalid rate limit rule " + rule);
+            }
+            String target = rule.substring(0, eq).trim();
+            RateLimit limit = RateLimit.parse(rule.substring(eq + 1));
+            int colon = target.indexOf(':');
+            if (colon < 0) {
+                interceptor.limit(target, limit);
+            } else {
+                interceptor.limit(target.substring(0, colon).trim(), target.substring(colon + 1).trim(), limit);
+            }
+        }
+        return interceptor;
+    }
+
+    /**
+     * Limits calls of clients in the role to every method.
+     */
+    public RateLimitInterceptor limit(String role, RateLimit limit) {
+        roleLimits.put(role, limit);
+        return this;
+    }
+
+    /**
+     * Limits calls of clients in the role to the method.
+     */
+    public RateLimitInterceptor limit(String role, MethodDescriptor<?, ?> method, RateLimit limit) {
+        return limit(role, method.getFullMethodName(), limit);
+    }
+
+    private RateLimitInterceptor limit(String role, String fullMethodName, RateLimit limit) {
+        methodLimits.computeIfAbsent(fullMethodName, m -> new HashMap<>()).put(role, limit);
+        return this;
+    }
+
+    public int getBucketCount() {
+        return limiter.getBucketCount();
+    }
+
+    public long getThrottledCount() {
+        return throttled.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+            ServerCallHandler<ReqT, RespT> next) {
+        AuthInfo authInfo = Constant.CLIENT_CONTEXT_KEY.get();
+        if (null == authInfo) {
+            return next.startCall(call, headers);
+        }
+
+        String method = call.getMethodDescriptor().getFullMethodName();
+        RateLimit limit = getLimit(authInfo, method);
+        if (null == limit || RateLimit.UNLIMITED == limit) {
+            return next.startCall(call, headers);
+        }
+
+        long key = ((long) authInfo.clientId << 32) | (getMethodId(method) & 0xffffffffL);
+        long waitNanos = limiter.tryAcquire(key, limit, System.nanoTime());
+        if (0 == waitNanos) {
+            return next.startCall(call, headers);
+        }
+
+        throttled.computeIfAbsent(method, m -> new LongAdder()).increment();
+        long waitMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNanos + 999_999));
+        Metadata trailers = new Metadata();
+        trailers.put(RETRY_PUSHBACK_KEY, Long.toString(waitMillis));
+        call.close(Status.RESOURCE_EXHAUSTED
+                .withDescription("Rate limit of the client exceeded, retry after " + waitMillis + " ms"), trailers);
+        return new ServerCall.Listener<ReqT>() {
+            // noop
+        };
+    }
+
+    /**
+     * Returns the most generous limit of the roles of the client or null if
+     * calls of the client to the method are not limited.
+     */
+    RateLimit getLimit(AuthInfo authInfo, String method) {
+        Map<String, RateLimit> limits = methodLimits.get(method);
+        RateLimit best = null;
+        for (String role : authInfo.getRoles()) {
+            RateLimit limit = getLimit(limits, role);
+            if (null != limit && (null == best || limit.exceeds(best))) {
+                best = limit;
+            }
+        }
+        return null != best ? best : getLimit(limits, ANY_ROLE);
+    }
+
+    private RateLimit getLimit(Map<String, RateLimit> limits, String role) {
+        RateLimit limit = null != limits ? limits.get(role) : null;
+        return null != limit ? limit : roleLimits.get(role);
+    }
+
+    private int getMethodId(String method) {
+        Integer id = methodIds.get(method);
+        return null != id ? id : methodIds.computeIfAbsent(method, m -> nextMethodId.getAndIncrement());
+    }
+
+    @Override
+    public void collect(MetricsRegistry.Writer writer) {
+        writer.type("orders_ratelimit_throttled_total", "counter", "Calls rejected over rate limits of clients.");
+        throttled.forEach((method, count) -> writer.sample("orders_ratelimit_throttled_total",
+                "grpc_service=\"" + MethodDescriptor.extractFullServiceName(method) + "\",grpc_method=\""
+                        + method.substring(method.lastIndexOf('/') + 1) + "\"",
+                count.sum()));
+        writer.type("orders_ratelimit_buckets", "gauge", "Token buckets of clients kept.");
+        writer.sample("orders_ratelimit_buckets", null, limiter.getBucketCount());
+        writer.type("orders_ratelimit_evicted_total", "counter", "Token buckets of idle clients evicted.");
+        writer.sample("orders_ratelimit_evicted_total", null, limiter.getEvictedCount());
+    }
+}
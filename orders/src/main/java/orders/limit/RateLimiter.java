@@ -0,0 +1,76 @@
+package orders.limit;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Token buckets of many keys. A bucket is the time it becomes full again
+ * (the generic cell rate algorithm), so a call takes a token with a single
+ * compare-and-set and never locks. Full buckets are the same as missing ones,
+ * so buckets left full by idle keys are evicted by sweeps run by callers from
+ * time to time.
+ */
+final class RateLimiter {
+    static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final ConcurrentMap<Long, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong lastSweep;
+    private final LongAdder evicted = new LongAdder();
+
+    RateLimiter(long nowNanos) {
+        lastSweep = new AtomicLong(nowNanos);
+    }
+
+    /**
+     * Takes a token from the bucket of the key.
+     *
+     * @return 0 if the call is allowed, otherwise nanoseconds until it would
+     *         be allowed
+     */
+    long tryAcquire(long key, RateLimit limit, long nowNanos) {
+        sweepIfDue(nowNanos);
+
+        AtomicLong bucket = buckets.get(key);
+        if (null == bucket) {
+            bucket = buckets.computeIfAbsent(key, k -> new AtomicLong(nowNanos));
+        }
+
+        long capacity = limit.intervalNanos * limit.burst;
+        while (true) {
+            long full = bucket.get();
+            long next = Math.max(full, nowNanos) + limit.intervalNanos;
+            long wait = next - nowNanos - capacity;
+            if (wait > 0) {
+                return wait;
+            }
+            // a bucket evicted meanwhile gives away one token at most
+            if (bucket.compareAndSet(full, next)) {
+                return 0;
+            }
+        }
+    }
+
+    private void sweepIfDue(long nowNanos) {
+        long last = lastSweep.get();
+        if (nowNanos - last < SWEEP_INTERVAL_NANOS || !lastSweep.compareAndSet(last, nowNanos)) {
+            return;
+        }
+
+        buckets.forEach((key, bucket) -> {
+            if (bucket.get() - nowNanos <= 0 && buckets.remove(key, bucket)) {
+                evicted.increment();
+            }
+        });
+    }
+
+    int getBucketCount() {
+        return buckets.size();
+    }
+
+    long getEvictedCount() {
+        return evicted.sum();
+    }
+}
@@ -0,0 +1,76 @@
+package orders.limit;
+
+/**
+ * Concurrency limit adjusted to latency the way TCP Vegas adjusts its window.
+ * The lowest latency seen is taken as latency without queueing; the number
+ * of calls queued is estimated from how much slower the latest call was. The
+ * limit grows while few calls are queued and shrinks when many are queued or
+ * calls fail because of overload. The lowest latency is measured again from
+ * time to time, as it changes with the data.
+ */
+final class VegasLimit {
+    /* Samples between measurements of the lowest latency, per unit of the limit */
+    private static final int PROBE_MULTIPLIER = 30;
+
+    private final int minLimit;
+    private final int maxLimit;
+
+    private volatile int limit;
+    private long noLoadNanos;
+    private long samples;
+
+    VegasLimit(int initialLimit, int minLimit, int maxLimit) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Takes the latency of a call completed.
+     *
+     * @param inFlight calls in flight when the call was started
+     * @param dropped  whether the call failed because of overload
+     */
+    synchronized void sample(long nanos, int inFlight, boolean dropped) {
+        if (nanos <= 0) {
+            return;
+        }
+
+        int current = limit;
+        if (++samples >= (long) PROBE_MULTIPLIER * current) {
+            samples = 0;
+            noLoadNanos = nanos;
+            return;
+        }
+        if (0 == noLoadNanos || nanos < noLoadNanos) {
+            noLoadNanos = nanos;
+            return;
+        }
+
+        double step = Math.max(1, Math.log10(current));
+        double next;
+        if (dropped) {
+            next = current - step;
+        } else if (inFlight * 2 < current) {
+            // the limit has not been reached, latency says nothing about it
+            return;
+        } else {
+            long queued = (long) Math.ceil(current * (1 - (double) noLoadNanos / nanos));
+            if (queued <= step) {
+                next = current + 6 * step;
+            } else if (queued < 3 * step) {
+                next = current + step;
+            } else if (queued > 6 * step) {
+                next = current - step;
+            } else {
+                return;
+            }
+        }
+
+        limit = (int) Math.max(minLimit, Math.min(maxLimit, Math.round(next)));
+    }
+}
@@ -0,0 +1,61 @@
+package orders.metrics;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram with fixed bucket bounds. Recording is a binary search and two
+ * LongAdder increments, so concurrent calls do not contend on a lock.
+ */
+public final class LatencyHistogram {
+    /**
+     * Upper bounds of buckets in seconds, the last bucket is unbounded.
+     */
+    static final double[] BOUNDS = { 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10 };
+
+    /**
+     * Bounds formatted for the le label.
+     */
+    static final String[] BOUND_LABELS = Arrays.stream(BOUNDS)
+            .mapToObj(s -> BigDecimal.valueOf(s).stripTrailingZeros().toPlainString())
+            .toArray(String[]::new);
+
+    private static final long[] BOUNDS_NANOS = Arrays.stream(BOUNDS)
+            .mapToLong(s -> (long) (s * TimeUnit.SECONDS.toNanos(1)))
+            .toArray();
+
+    private final LongAdder[] buckets = new LongAdder[BOUNDS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; ++i) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        int i = Arrays.binarySearch(BOUNDS_NANOS, nanos);
+        buckets[i < 0 ? -i - 1 : i].increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * Returns cumulative counts of values less than or equal to each bound,
+     * the last one is the total count.
+     */
+    public long[] getCumulativeCounts() {
+        long[] counts = new long[buckets.length];
+        long total = 0;
+        for (int i = 0; i < buckets.length; ++i) {
+            total += buckets[i].sum();
+            counts[i] = total;
+        }
+        return counts;
+    }
+
+    public double getSumSeconds() {
+        return sumNanos.sum() / 1e9;
+    }
+}
@@ -0,0 +1,59 @@
+package orders.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+/**
+ * Counters of one RPC method.
+ */
+public final class MethodMetrics {
+    private static final Status.Code[] CODES = Status.Code.values();
+
+    final String service;
+    final String method;
+    final String type;
+
+    final LongAdder started = new LongAdder();
+    final LongAdder[] handled = new LongAdder[CODES.length];
+    final LatencyHistogram latency = new LatencyHistogram();
+
+    MethodMetrics(MethodDescriptor<?, ?> descriptor) {
+        service = descriptor.getServiceName();
+        method = descriptor.getBareMethodName();
+        type = descriptor.getType().name();
+        for (int i = 0; i < handled.length; ++i) {
+            handled[i] = new LongAdder();
+        }
+    }
+
+    void completed(Status.Code code, long nanos) {
+        handled[code.ordinal()].increment();
+        latency.record(nanos);
+    }
+
+    public long getStarted() {
+        return started.sum();
+    }
+
+    /**
+     * Returns calls started and not completed yet, derived from the counters
+     * so the request path does not maintain a separate gauge.
+     */
+    public long getInFlight() {
+        long completed = 0;
+        for (LongAdder h : handled) {
+            completed += h.sum();
+        }
+        return Math.max(0, started.sum() - completed);
+    }
+
+    public long getHandled(Status.Code code) {
+        return handled[code.ordinal()].sum();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+}
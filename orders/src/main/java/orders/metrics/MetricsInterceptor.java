@@ -0,0 +1,128 @@
+package orders.metrics;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import io.grpc.ForwardingServerCall;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+
+/**
+ * Counts started and completed calls by method and status code, calls in
+ * flight and latency from the start of a call until it is closed or
+ * cancelled. Should be added last to the server builder, so it runs first and
+ * the latency includes the rest of the interceptors.
+ */
+public class MetricsInterceptor implements ServerInterceptor, MetricsRegistry.Collector {
+    private final ConcurrentMap<String, MethodMetrics> methods = new ConcurrentHashMap<>();
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> serverCall, Metadata metadata,
+            ServerCallHandler<ReqT, RespT> serverCallHandler) {
+        MethodMetrics metrics = getMetrics(serverCall.getMethodDescriptor());
+        metrics.started.increment();
+
+        MonitoredCall<ReqT, RespT> call = new MonitoredCall<>(serverCall, metrics);
+        ServerCall.Listener<ReqT> listener;
+        try {
+            listener = serverCallHandler.startCall(call, metadata);
+        } catch (RuntimeException e) {
+            call.completed(Status.Code.UNKNOWN);
+            throw e;
+        }
+
+        return new ForwardingServerCallListener.SimpleForwardingServerCallListener<ReqT>(listener) {
+            @Override
+            public void onCancel() {
+                call.completed(Status.Code.CANCELLED);
+                super.onCancel();
+            }
+
+            @Override
+            public void onComplete() {
+                // a handler that throws is closed by the server, bypassing the call
+                call.completed(Status.Code.UNKNOWN);
+                super.onComplete();
+            }
+        };
+    }
+
+    /**
+     * Returns metrics of methods called so far.
+     */
+    public Collection<MethodMetrics> getMethods() {
+        return Collections.unmodifiableCollection(methods.values());
+    }
+
+    @Override
+    public void collect(MetricsRegistry.Writer writer) {
+        writer.type("grpc_server_started_total", "counter", "RPCs started on the server.");
+        methods.values().forEach(m -> writer.sample("grpc_server_started_total", labels(m), m.getStarted()));
+
+        writer.type("grpc_server_handled_total", "counter", "RPCs completed on the server, regardless of success or failure.");
+        methods.values().forEach(m -> {
+            for (Status.Code code : Status.Code.values()) {
+                long count = m.getHandled(code);
+                if (count > 0) {
+                    writer.sample("grpc_server_handled_total", labels(m) + ",grpc_code=\"" + code + "\"", count);
+                }
+            }
+        });
+
+        writer.type("grpc_server_in_flight", "gauge", "RPCs started and not completed yet.");
+        methods.values().forEach(m -> writer.sample("grpc_server_in_flight", labels(m), m.getInFlight()));
+
+        writer.type("grpc_server_handling_seconds", "histogram", "Latency of RPCs completed by the server.");
+        methods.values().forEach(m -> writer.histogram("grpc_server_handling_seconds", labels(m), m.getLatency()));
+    }
+
+    private MethodMetrics getMetrics(MethodDescriptor<?, ?> descriptor) {
+        String name = descriptor.getFullMethodName();
+        MethodMetrics metrics = methods.get(name);
+        return null != metrics ? metrics : methods.computeIfAbsent(name, n -> new MethodMetrics(descriptor));
+    }
+
+    private static String labels(MethodMetrics m) {
+        return "grpc_service=\"" + m.service + "\",grpc_method=\"" + m.method + "\",grpc_type=\"" + m.type + "\"";
+    }
+
+    /**
+     * Records completion of the call once, whether it is closed by the server,
+     * cancelled or completed without a close seen here.
+     */
+    private static final class MonitoredCall<ReqT, RespT>
+            extends ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT> {
+        @SuppressWarnings("rawtypes")
+        private static final AtomicIntegerFieldUpdater<MonitoredCall> COMPLETED = AtomicIntegerFieldUpdater
+                .newUpdater(MonitoredCall.class, "completed");
+
+        private final MethodMetrics metrics;
+        private final long startNanos = System.nanoTime();
+        private volatile int completed;
+
+        MonitoredCall(ServerCall<ReqT, RespT> delegate, MethodMetrics metrics) {
+            super(delegate);
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void close(Status status, Metadata trailers) {
+            completed(status.getCode());
+            super.close(status, trailers);
+        }
+
+        void completed(Status.Code code) {
+            if (COMPLETED.compareAndSet(this, 0, 1)) {
+                metrics.completed(code, System.nanoTime() - startNanos);
+            }
+        }
+    }
+}
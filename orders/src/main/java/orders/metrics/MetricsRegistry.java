@@ -0,0 +1,96 @@
+package orders.metrics;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Metrics of the server exposed in the Prometheus text format. Values are
+ * read from their sources on scrape, so registering a metric costs nothing on
+ * the request path.
+ */
+public class MetricsRegistry {
+    /**
+     * Source of metrics written on scrape.
+     */
+    public interface Collector {
+        void collect(Writer writer);
+    }
+
+    private final List<Collector> collectors = new CopyOnWriteArrayList<>();
+
+    public void register(Collector collector) {
+        collectors.add(collector);
+    }
+
+    public void gauge(String name, String help, DoubleSupplier value) {
+        register(w -> {
+            w.type(name, "gauge", help);
+            w.sample(name, null, value.getAsDouble());
+        });
+    }
+
+    /**
+     * Registers a counter, the value must never decrease.
+     */
+    public void counter(String name, String help, DoubleSupplier value) {
+        register(w -> {
+            w.type(name, "counter", help);
+            w.sample(name, null, value.getAsDouble());
+        });
+    }
+
+    /**
+     * Returns all metrics in the Prometheus text exposition format.
+     */
+    public String scrape() {
+        Writer writer = new Writer();
+        collectors.forEach(c -> c.collect(writer));
+        return writer.sb.toString();
+    }
+
+    /**
+     * Formats metric families and samples.
+     */
+    public static final class Writer {
+        private final StringBuilder sb = new StringBuilder(4096);
+
+        private Writer() {
+        }
+
+        public void type(String name, String type, String help) {
+            sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        }
+
+        /**
+         * @param labels comma separated name="value" pairs or null
+         */
+        public void sample(String name, String labels, double value) {
+            sb.append(name);
+            if (null != labels && !labels.isEmpty()) {
+                sb.append('{').append(labels).append('}');
+            }
+            sb.append(' ');
+            if (value == Math.rint(value) && !Double.isInfinite(value)) {
+                sb.append((long) value);
+            } else {
+                sb.append(String.format(Locale.ROOT, "%.9g", value));
+            }
+            sb.append('\n');
+        }
+
+        public void histogram(String name, String labels, LatencyHistogram histogram) {
+            long[] counts = histogram.getCumulativeCounts();
+            String prefix = null != labels && !labels.isEmpty() ? labels + "," : "";
+            for (int i = 0; i < LatencyHistogram.BOUND_LABELS.length; ++i) {
+                sample(name + "_bucket", prefix + "le=\"" + LatencyHistogram.BOUND_LABELS[i] + "\"", counts[i]);
+            }
+            long total = counts[counts.length - 1];
+            sample(name + "_bucket", prefix + "le=\"+Inf\"", total);
+            sample(name + "_sum", labels, histogram.getSumSeconds());
+            sample(name + "_count", labels, total);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package orders.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves metrics for scraping at /metrics on a side HTTP port, along with
+ * other diagnostic pages.
+ */
+public class MetricsServer implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(MetricsServer.class.getName());
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    public MetricsServer(int port, MetricsRegistry registry) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        addPage("/metrics", "text/plain; version=0.0.4; charset=utf-8", registry::scrape);
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "metrics-server");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.start();
+        logger.info("Metrics server started, listening on " + getPort());
+    }
+
+    /**
+     * Serves text produced on each request at the path given.
+     */
+    public void addPage(String path, String contentType, Supplier<String> page) {
+        server.createContext(path, exchange -> handle(exchange, contentType, page));
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private static void handle(HttpExchange exchange, String contentType, Supplier<String> page) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = page.get().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdown();
+    }
+}
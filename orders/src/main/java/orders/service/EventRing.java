@@ -0,0 +1,71 @@
+package orders.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded ring of the latest events. Publishers claim positions with a single
+ * atomic increment and overwrite the oldest events, so they never wait for
+ * readers. Every reader keeps its own position and finds out it has lagged
+ * behind when the slot of its position holds a newer event.
+ */
+final class EventRing<T> {
+    /**
+     * Event published at the position.
+     */
+    static final class Slot<T> {
+        final long position;
+        final T value;
+
+        Slot(long position, T value) {
+            this.position = position;
+            this.value = value;
+        }
+    }
+
+    private final AtomicReferenceArray<Slot<T>> slots;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * @param capacity number of events kept, rounded up to a power of two
+     */
+    EventRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        slots = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    int capacity() {
+        return slots.length();
+    }
+
+    /**
+     * Returns position of the event published next.
+     */
+    long head() {
+        return head.get();
+    }
+
+    /**
+     * Returns position of the oldest event kept.
+     */
+    long tail() {
+        return Math.max(0, head.get() - slots.length());
+    }
+
+    long publish(T value) {
+        long position = head.getAndIncrement();
+        slots.set((int) (position & mask), new Slot<>(position, value));
+        return position;
+    }
+
+    /**
+     * Returns the slot of the position. The slot holds an older position or is
+     * null if the event is not published yet, and holds a newer position if
+     * the event has been overwritten.
+     */
+    Slot<T> get(long position) {
+        return slots.get((int) (position & mask));
+    }
+}
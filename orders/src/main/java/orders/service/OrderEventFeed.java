@@ -0,0 +1,436 @@
+package orders.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.time.Instant;
+
+import org.hibernate.Session;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import io.grpc.stub.ServerCallStreamObserver;
+import jwtauth.UserIds;
+import orders.OrderEvent;
+import orders.OrderWatchRequest;
+import orders.hibernate.HibernateUtil;
+import orders.hibernate.model.OrderChange;
+
+/**
+ * Fan-out of committed order changes to watchers. Changes are published to a
+ * ring of the latest events, every watcher reads the ring from its own
+ * position on a drain thread, so writers never wait for watchers. Events the
+ * watcher has missed, before it subscribed or because it lagged behind the
+ * ring, are replayed from the order_changes table.
+ * <p>
+ * Writers commit concurrently, changes are published and replayed in the
+ * order of their sequences though: a change committed while a change with a
+ * lower sequence is still uncommitted is held until that one commits or rolls
+ * back. So a watcher resuming after a sequence misses no change committed
+ * later. This holds for changes made through one server, servers sharing the
+ * database commit their changes independently.
+ */
+public class OrderEventFeed implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(OrderEventFeed.class.getName());
+
+    static final int REPLAY_PAGE = 100;
+
+    private final EventRing<OrderEvent> ring;
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "orders-watch");
+        t.setDaemon(true);
+        return t;
+    });
+    /* Highest sequence published, changes with lower ones are published or rolled back */
+    private final LongAccumulator lastSequence = new LongAccumulator(Math::max, 0);
+    private final AtomicLong published = new AtomicLong();
+    private final LongAdder overflows = new LongAdder();
+    /* Sequences of changes not committed or rolled back yet, also guards held */
+    private final TreeSet<Long> uncommitted = new TreeSet<>();
+    /* Committed changes waiting for changes with lower sequences */
+    private final TreeMap<Long, OrderEvent> held = new TreeMap<>();
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param capacity number of the latest events kept in memory
+     */
+    public OrderEventFeed(int capacity) {
+        ring = new EventRing<>(capacity);
+    }
+
+    /**
+     * Continues sequences of the changes stored and schedules deletion of the
+     * changes older than the retention period.
+     */
+    public synchronized void start(long retention, TimeUnit unit) {
+        try (Session session = HibernateUtil.getSession()) {
+            Long max = session.createQuery("select max(id) from OrderChange", Long.class).getSingleResult();
+            lastSequence.accumulate(null != max ? max : 0);
+        }
+
+        if (scheduler != null) {
+            return;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "orders-changes-cleanup");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1, unit.toMinutes(retention) / 24);
+        scheduler.scheduleWithFixedDelay(() -> deleteOlderThan(retention, unit), 0, period, TimeUnit.MINUTES);
+    }
+
+    private void deleteOlderThan(long retention, TimeUnit unit) {
+        try (Session session = HibernateUtil.getSession()) {
+            session.beginTransaction();
+            int deleted = session.createMutationQuery("delete from OrderChange where createdAt < :before")
+                    .setParameter("before", Instant.now().minusMillis(unit.toMillis(retention)))
+                    .executeUpdate();
+            session.getTransaction().commit();
+            if (deleted > 0) {
+                logger.info("Deleted " + deleted + " order changes");
+            }
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Deletion of order changes failed", e);
+        }
+    }
+
+    /**
+     * Records the change in the transaction of the session, commits it and
+     * publishes the event.
+     */
+    public OrderEvent commit(Session session, OrderEvent.Builder change) {
+        return commit(session, List.of(change)).get(0);
+    }
+
+    /**
+     * Records the changes in the transaction of the session, commits it and
+     * publishes the events in the order given. Only allocation of sequences
+     * is serialized with other writers, the pooled sequence allocates them in
+     * memory mostly.
+     */
+    public List<OrderEvent> commit(Session session, List<OrderEvent.Builder> changes) {
+        List<OrderEvent> events = new ArrayList<>(changes.size());
+        boolean committed = false;
+        try {
+            synchronized (uncommitted) {
+                for (OrderEvent.Builder event : changes) {
+                    Integer previousUser = event.hasPreviousUser() ? event.getPreviousUser().getValue() : null;
+                    OrderChange change = new OrderChange(event.getUser(), previousUser, Instant.now(),
+                            event.build().toByteArray());
+                    session.persist(change);
+                    uncommitted.add(change.getId());
+                    events.add(event.setSequence(change.getId()).build());
+                }
+            }
+            session.getTransaction().commit();
+            committed = true;
+        } finally {
+            complete(events, committed);
+        }
+        return events;
+    }
+
+    /**
+     * Publishes the committed events and events held for them, up to the
+     * lowest sequence still uncommitted.
+     */
+    private void complete(List<OrderEvent> events, boolean committed) {
+        synchronized (uncommitted) {
+            for (OrderEvent event : events) {
+                uncommitted.remove(event.getSequence());
+                if (committed) {
+                    held.put(event.getSequence(), event);
+                }
+            }
+
+            SortedMap<Long, OrderEvent> ready = uncommitted.isEmpty() ? held : held.headMap(uncommitted.first());
+            if (!ready.isEmpty()) {
+                List<OrderEvent> published = new ArrayList<>(ready.values());
+                ready.clear();
+                publish(published);
+            }
+        }
+    }
+
+    /**
+     * Publishes events in the order of sequences. Watchers of other users are
+     * woken up only when they are about to lag behind.
+     */
+    private void publish(List<OrderEvent> events) {
+        long position = -1;
+        for (OrderEvent event : events) {
+            // Before the ring, so a replay up to it covers events the ring has
+            lastSequence.accumulate(event.getSequence());
+            position = ring.publish(event);
+        }
+        published.addAndGet(events.size());
+
+        for (Subscription s : subscriptions) {
+            if (position - s.position >= ring.capacity() / 2 || events.stream().anyMatch(s::matches)) {
+                s.schedule();
+            }
+        }
+    }
+
+    /**
+     * Streams events to the watcher until it cancels the call or the feed is
+     * closed.
+     */
+    public void subscribe(UserIds users, OrderWatchRequest req, ServerCallStreamObserver<OrderEvent> observer) {
+        Subscription s = new Subscription(users, req, observer);
+        subscriptions.add(s);
+        // Both handlers are invoked serially by the call executor
+        observer.setOnCancelHandler(s::cancel);
+        observer.setOnReadyHandler(s::schedule);
+        s.schedule();
+    }
+
+    public int getSubscriptionCount() {
+        return subscriptions.size();
+    }
+
+    public long getPublishedCount() {
+        return published.get();
+    }
+
+    /**
+     * Returns how many times watchers have lagged behind the ring.
+     */
+    public long getOverflowCount() {
+        return overflows.sum();
+    }
+
+    /**
+     * Ends streams of all watchers with UNAVAILABLE, they resume from another
+     * server or after the restart.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+                scheduler = null;
+            }
+        }
+        subscriptions.forEach(Subscription::shutdown);
+        executor.shutdown();
+    }
+
+    /**
+     * Loads events of the users stored after the sequence given, up to the
+     * last sequence published. Changes committed later come from the ring.
+     */
+    static List<OrderEvent> replay(long after, long upTo, UserIds users) {
+        try (Session session = HibernateUtil.getSession()) {
+            session.setDefaultReadOnly(true);
+            List<OrderChange> changes = session.createQuery(
+                    "from OrderChange where id > :after and id <= :upTo"
+                            + " and (user in (:users) or previousUser in (:users)) order by id",
+                    OrderChange.class)
+                    .setParameter("after", after)
+                    .setParameter("upTo", upTo)
+                    .setParameter("users", users.asList())
+                    .setMaxResults(REPLAY_PAGE)
+                    .list();
+            return changes.stream().map(c -> {
+                try {
+                    return OrderEvent.parseFrom(c.getEvent()).toBuilder().setSequence(c.getId()).build();
+                } catch (InvalidProtocolBufferException e) {
+                    throw new IllegalStateException("Invalid order change " + c.getId(), e);
+                }
+            }).toList();
+        }
+    }
+
+    /**
+     * Position and state of a watcher. Events are sent by a single drain at a
+     * time, scheduled on publish, when the call becomes ready and on close.
+     */
+    private final class Subscription implements Runnable {
+        private final UserIds users;
+        private final OrderWatchRequest.Overflow overflow;
+        private final ServerCallStreamObserver<OrderEvent> observer;
+        private final AtomicInteger wip = new AtomicInteger();
+
+        /* Position in the ring, read by publishers */
+        volatile long position;
+        private volatile boolean closed;
+        private volatile boolean shutdown;
+
+        private final ArrayDeque<OrderEvent> pending = new ArrayDeque<>();
+        private boolean replaying;
+        /* Events of the ring up to it have been replayed from the database */
+        private long replayed;
+        private long sent;
+
+        Subscription(UserIds users, OrderWatchRequest req, ServerCallStreamObserver<OrderEvent> observer) {
+            this.users = users;
+            this.overflow = req.getOverflow();
+            this.observer = observer;
+            position = ring.head();
+            if (req.getAfterSequence() > 0) {
+                replaying = true;
+                sent = req.getAfterSequence();
+            } else {
+                sent = lastSequence.get();
+            }
+        }
+
+        boolean matches(OrderEvent event) {
+            return users.contains(event.getUser())
+                    || (event.hasPreviousUser() && users.contains(event.getPreviousUser().getValue()));
+        }
+
+        void schedule() {
+            if (wip.getAndIncrement() == 0) {
+                try {
+                    executor.execute(this);
+                } catch (RuntimeException e) {
+                    // the feed is closed
+                    wip.set(0);
+                }
+            }
+        }
+
+        void cancel() {
+            closed = true;
+            subscriptions.remove(this);
+        }
+
+        void shutdown() {
+            shutdown = true;
+            schedule();
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                drain();
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drain() {
+            if (closed) {
+                return;
+            }
+            if (shutdown) {
+                close(io.grpc.Status.UNAVAILABLE.withDescription("Server is shutting down"));
+                return;
+            }
+
+            try {
+                while (observer.isReady()) {
+                    OrderEvent event = pending.poll();
+                    if (null == event) {
+                        if (replaying) {
+                            List<OrderEvent> page = replay(sent, lastSequence.get(), users);
+                            replaying = page.size() == REPLAY_PAGE;
+                            pending.addAll(page);
+                            if (!page.isEmpty()) {
+                                replayed = page.get(page.size() - 1).getSequence();
+                            }
+                            continue;
+                        }
+
+                        event = next();
+                        if (null == event) {
+                            if (replaying) {
+                                continue;
+                            }
+                            return;
+                        }
+                    }
+
+                    sent = Math.max(sent, event.getSequence());
+                    observer.onNext(visible(event));
+                }
+            } catch (RuntimeException e) {
+                logger.warning("Order events streaming failed: " + e);
+                close(io.grpc.Status.INTERNAL.withDescription("Order events streaming failed").withCause(e));
+            }
+        }
+
+        /**
+         * Returns the next event of the ring for the watcher or null if there
+         * are no more events or the stream is closed.
+         */
+        private OrderEvent next() {
+            while (true) {
+                long p = position;
+                EventRing.Slot<OrderEvent> slot = ring.get(p);
+                if (null == slot || slot.position < p) {
+                    return null;
+                }
+
+                if (slot.position > p) {
+                    overflows.increment();
+                    switch (overflow) {
+                        case CLOSE:
+                            close(io.grpc.Status.RESOURCE_EXHAUSTED
+                                    .withDescription("Watcher lagged behind, resume after sequence " + sent));
+                            return null;
+                        case SKIP:
+                            position = Math.max(p + 1, ring.head() - ring.capacity() / 2);
+                            continue;
+                        default:
+                            replaying = true;
+                            position = ring.head();
+                            return null;
+                    }
+                }
+
+                position = p + 1;
+                OrderEvent event = slot.value;
+                // Events replayed are still in the ring, events committed
+                // after the replay have greater sequences
+                if (event.getSequence() <= replayed || !matches(event)) {
+                    continue;
+                }
+                return event;
+            }
+        }
+
+        /**
+         * Returns the event as the watcher may see it.
+         */
+        private OrderEvent visible(OrderEvent event) {
+            if (users.contains(event.getUser())) {
+                return event;
+            }
+            // The order has been moved to a user the watcher may not see, it
+            // is deleted for the previous user without telling the new one
+            return event.toBuilder()
+                    .setType(OrderEvent.Type.DELETED)
+                    .setUser(event.getPreviousUser().getValue())
+                    .clearPreviousUser()
+                    .clearVersion()
+                    .clearOrder()
+                    .build();
+        }
+
+        private void close(io.grpc.Status status) {
+            cancel();
+            observer.onError(status.asRuntimeException());
+        }
+    }
+}
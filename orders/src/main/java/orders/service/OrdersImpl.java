@@ -2,20 +2,35 @@ package orders.service;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Objects;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.logging.Logger;
 import java.time.Instant;
 
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 import com.google.protobuf.Int32Value;
 import com.google.protobuf.StringValue;
 
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
+import org.hibernate.cache.spi.access.CachedDomainDataAccess;
+import org.hibernate.cache.spi.access.SoftLock;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.query.NativeQuery;
 import org.hibernate.query.Query;
 
-import orders.hibernate.HibernateUtil;
+import orders.hibernate.UnitOfWork;
 import orders.hibernate.model.Address;
 import orders.hibernate.model.Order;
 import orders.hibernate.model.Product;
@@ -26,22 +41,100 @@ import orders.*;
 public class OrdersImpl extends OrdersGrpc.OrdersImplBase {
 
     static String unauthorizedErrDescr = "Unauthorized";
+    static final int STREAM_FETCH_SIZE = 100;
+    static final int GET_MANY_MAX_IDS = 1000;
+    static final int CREATE_BATCH_MAX_ORDERS = 1000;
+    /* Ids bound to a single IN list, databases limit parameters of a statement */
+    static final int IN_CHUNK_SIZE = 500;
+
+    /* Paths of OrderRequest fields Patch can update */
+    static final Set<String> PATCH_PATHS = Set.of("user", "customer", "comment", "address", "address.street",
+            "address.zipCode", "address.countryCode", "orderProductList");
+
+    /*
+     * Query space of Patch statements. Patch soft-locks the changed order in
+     * the second-level cache itself, naming real tables would make Hibernate
+     * evict every cached order.
+     */
+    private static final String PATCH_QUERY_SPACE = "orders_patch";
+    private static final String ORDER_PRODUCTS_ROLE = Order.class.getName() + ".products";
     private static final Logger logger = Logger.getLogger(OrdersImpl.class.getName());
 
+    private final OrderEventFeed events;
+    private final SingleFlight<GetKey, OrderReply> gets = new SingleFlight<>("Orders.Get");
+    private final SingleFlight<GetKey, OrderReplyV2> getsV2 = new SingleFlight<>("Orders.GetV2");
+
+    /* Order read by Get with the users it may belong to */
+    private record GetKey(long id, UserIds users) {
+    }
+
+    /* Orders of a page with fields of List replies, zero or empty if not set */
+    private record OrderPage(List<Order> orders, int offset, int count, int total, String nextPageToken) {
+    }
+
+    public OrdersImpl() {
+        this(new OrderEventFeed(1024));
+    }
+
+    /**
+     * @param events feed committed changes are published to
+     */
+    public OrdersImpl(OrderEventFeed events) {
+        this.events = events;
+    }
+
+    /**
+     * Returns loads of Get and GetV2 shared by concurrent callers.
+     */
+    public List<SingleFlight<?, ?>> getGetFlights() {
+        return List.of(gets, getsV2);
+    }
+
     @Override
     public void list(OrderListRequest req, StreamObserver<OrderListReply> responseObserver) {
+        OrderPage page = getPage(req, responseObserver);
+        if (null == page) {
+            return;
+        }
 
-        List<Integer> authorizedIds = authorizeRequest("GetOrder", responseObserver);
-        if (authorizedIds.isEmpty()) {
+        OrderListReply.Builder reply = OrderListReply.newBuilder()
+                .setOffset(page.offset())
+                .setCount(page.count())
+                .setTotal(page.total())
+                .setNextPageToken(page.nextPageToken());
+        page.orders().forEach(o -> reply.addOrdersList(getOrderReplyFromOrder(o)));
+
+        responseObserver.onNext(reply.build());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void listV2(OrderListRequest req, StreamObserver<OrderListReplyV2> responseObserver) {
+        OrderPage page = getPage(req, responseObserver);
+        if (null == page) {
             return;
         }
 
-        Session session = HibernateUtil.getSession();
+        OrderListReplyV2.Builder reply = OrderListReplyV2.newBuilder()
+                .setOffset(page.offset())
+                .setCount(page.count())
+                .setTotal(page.total())
+                .setNextPageToken(page.nextPageToken());
+        page.orders().forEach(o -> reply.addOrders(getOrderReplyV2FromOrder(o)));
 
-        Query<Order> query = session.createQuery(
-                "from Order where user in (:user) and deletedBy is null and deletedAt is null order by id desc",
-                Order.class);
-        query.setParameter("user", authorizedIds);
+        responseObserver.onNext(reply.build());
+        responseObserver.onCompleted();
+    }
+
+    /**
+     * Loads the page of orders requested or returns null if the request fails,
+     * reporting the error to the observer.
+     */
+    private static <T> OrderPage getPage(OrderListRequest req, StreamObserver<T> responseObserver) {
+        UserIds authorizedIds = authorizeRequest("GetOrder", responseObserver);
+        if (authorizedIds.isEmpty()) {
+            return null;
+        }
 
         int count = req.getCount();
         if (count < 1)
@@ -51,49 +144,193 @@ public class OrdersImpl extends OrdersGrpc.OrdersImplBase {
         if (offset < 0)
             offset = 0;
 
-        query.setFirstResult(offset);
+        Long lastId = null;
+        if (!req.getPageToken().isEmpty()) {
+            try {
+                lastId = PageToken.decode(req.getPageToken());
+            } catch (IllegalArgumentException e) {
+                responseObserver.onError(io.grpc.Status.INVALID_ARGUMENT
+                        .withDescription("Invalid page token")
+                        .asRuntimeException(null));
+                return null;
+            }
+        }
+
+        Session session = UnitOfWork.current().readOnlySession();
+
+        // Select ids of the page first, limits can not be applied to a collection fetch
+        Query<Long> query;
+        if (null == lastId) {
+            query = session.createQuery(
+                    "select id from Order where user in (:user) and deletedBy is null and deletedAt is null order by id desc",
+                    Long.class);
+            query.setFirstResult(offset);
+        } else {
+            // Seek past the last order of the previous page instead of skipping rows
+            query = session.createQuery(
+                    "select id from Order where user in (:user) and id < :last and deletedBy is null and deletedAt is null order by id desc",
+                    Long.class);
+            query.setParameter("last", lastId);
+        }
+        query.setParameter("user", authorizedIds.asList());
         query.setMaxResults(count);
 
-        List<Order> orders = query.list();
+        List<Long> ids = query.list();
+        List<Order> orders = getOrdersWithDetails(session, ids);
 
-        OrderListReply.Builder reply = OrderListReply.newBuilder();
-        orders.forEach(o -> reply.addOrdersList(getOrderReplyFromOrder(o)));
+        String nextPageToken = ids.size() == count ? PageToken.encode(ids.get(count - 1)) : "";
 
-        Query<Long> countQuery = session.createQuery(
-                "Select count(o.id) from Order o where user in (:user) and deletedBy is null and deletedAt is null",
-                Long.class);
-        countQuery.setParameter("user", authorizedIds);
-        Long totalRecords = countQuery.getSingleResult();
+        // Offset paging always reported total, keep it unless the client opted out
+        int total = 0;
+        boolean includeTotal = req.hasIncludeTotal() ? req.getIncludeTotal().getValue() : null == lastId;
+        if (includeTotal) {
+            Query<Long> countQuery = session.createQuery(
+                    "Select count(o.id) from Order o where user in (:user) and deletedBy is null and deletedAt is null",
+                    Long.class);
+            countQuery.setParameter("user", authorizedIds.asList());
+            Long totalRecords = countQuery.getSingleResult();
 
-        reply.setOffset(offset);
-        reply.setCount(count);
-        int total = totalRecords > Integer.MAX_VALUE ? Integer.MAX_VALUE : totalRecords.intValue();
-        reply.setTotal(total);
+            total = totalRecords > Integer.MAX_VALUE ? Integer.MAX_VALUE : totalRecords.intValue();
+        }
 
-        responseObserver.onNext(reply.build());
-        responseObserver.onCompleted();
+        return new OrderPage(orders, null == lastId ? offset : 0, count, total, nextPageToken);
+    }
+
+    @Override
+    public void listStream(OrderListRequest req, StreamObserver<OrderReply> responseObserver) {
+        UserIds authorizedIds = authorizeRequest("GetOrder", responseObserver);
+        if (authorizedIds.isEmpty()) {
+            return;
+        }
+
+        Long lastId = null;
+        if (!req.getPageToken().isEmpty()) {
+            try {
+                lastId = PageToken.decode(req.getPageToken());
+            } catch (IllegalArgumentException e) {
+                responseObserver.onError(io.grpc.Status.INVALID_ARGUMENT
+                        .withDescription("Invalid page token")
+                        .asRuntimeException(null));
+                return;
+            }
+        }
+
+        Session session = UnitOfWork.current().readOnlySession();
+        // Keeps the connection and the cursor open while lazy associations are loaded
+        session.beginTransaction();
+
+        Query<Order> query = session.createQuery(
+                "select o from Order o join fetch o.address where o.user in (:user)"
+                        + (null == lastId ? "" : " and o.id < :last")
+                        + " and o.deletedBy is null and o.deletedAt is null order by o.id desc",
+                Order.class);
+        query.setParameter("user", authorizedIds.asList());
+        if (null != lastId) {
+            query.setParameter("last", lastId);
+        }
+        if (req.getCount() > 0) {
+            query.setMaxResults(req.getCount());
+        }
+        query.setFetchSize(STREAM_FETCH_SIZE);
+
+        ScrollableResults<Order> results = query.scroll(ScrollMode.FORWARD_ONLY);
+
+        new OrderStreamer(session, results, (ServerCallStreamObserver<OrderReply>) responseObserver).start();
     }
 
     @Override
     public void get(OrderRequest.Id req, StreamObserver<OrderReply> responseObserver) {
-        List<Integer> authorizedIds = authorizeRequest("GetOrder", responseObserver);
+        UserIds authorizedIds = authorizeRequest("GetOrder", responseObserver);
         if (authorizedIds.isEmpty()) {
             return;
         }
 
-        Session session = HibernateUtil.getSession();
+        // Callers with the same authorized users may see the same orders only
+        OrderReply reply = gets.load(new GetKey(req.getId(), authorizedIds), () -> {
+            Session session = UnitOfWork.current().readOnlySession();
+            Order order = getUserOrderById(session, req.getId(), authorizedIds);
+            return null == order ? null : getOrderReplyFromOrder(order);
+        });
+        if (null == reply) {
+            responseObserver.onError(io.grpc.Status.NOT_FOUND
+                    .withDescription("Order with id specified not found")
+                    .asRuntimeException(null));
+            return;
+        }
 
-        Order order = findOrder(session, req.getId(), authorizedIds, responseObserver);
+        responseObserver.onNext(reply);
+        responseObserver.onCompleted();
+    }
 
-        OrderReply reply = getOrderReplyFromOrder(order);
+    @Override
+    public void getV2(OrderRequest.Id req, StreamObserver<OrderReplyV2> responseObserver) {
+        UserIds authorizedIds = authorizeRequest("GetOrder", responseObserver);
+        if (authorizedIds.isEmpty()) {
+            return;
+        }
+
+        OrderReplyV2 reply = getsV2.load(new GetKey(req.getId(), authorizedIds), () -> {
+            Session session = UnitOfWork.current().readOnlySession();
+            Order order = getUserOrderById(session, req.getId(), authorizedIds);
+            return null == order ? null : getOrderReplyV2FromOrder(order);
+        });
+        if (null == reply) {
+            responseObserver.onError(io.grpc.Status.NOT_FOUND
+                    .withDescription("Order with id specified not found")
+                    .asRuntimeException(null));
+            return;
+        }
 
         responseObserver.onNext(reply);
         responseObserver.onCompleted();
     }
 
+    @Override
+    public void getMany(OrderGetManyRequest req, StreamObserver<OrderGetManyReply> responseObserver) {
+        UserIds authorizedIds = authorizeRequest("GetOrder", responseObserver);
+        if (authorizedIds.isEmpty()) {
+            return;
+        }
+
+        List<Long> ids = req.getIdsList().stream().distinct().toList();
+        if (ids.size() > GET_MANY_MAX_IDS) {
+            responseObserver.onError(io.grpc.Status.INVALID_ARGUMENT
+                    .withDescription("Too many ids, up to " + GET_MANY_MAX_IDS + " are allowed")
+                    .asRuntimeException(null));
+            return;
+        }
+
+        Session session = UnitOfWork.current().readOnlySession();
+        Map<Long, Order> orders = new HashMap<>();
+        for (int i = 0; i < ids.size(); i += IN_CHUNK_SIZE) {
+            List<Long> chunk = ids.subList(i, Math.min(ids.size(), i + IN_CHUNK_SIZE));
+            session.createQuery(
+                    "select o from Order o join fetch o.address left join fetch o.products where o.id in (:ids)"
+                            + " and o.user in (:user) and o.deletedBy is null and o.deletedAt is null",
+                    Order.class)
+                    .setParameter("ids", chunk)
+                    .setParameter("user", authorizedIds.asList())
+                    .list()
+                    .forEach(o -> orders.put(o.getId(), o));
+        }
+
+        OrderGetManyReply.Builder reply = OrderGetManyReply.newBuilder();
+        ids.forEach(id -> {
+            Order order = orders.get(id);
+            if (null != order) {
+                reply.addOrders(getOrderReplyFromOrder(order));
+            } else {
+                reply.addMissingIds(id);
+            }
+        });
+
+        responseObserver.onNext(reply.build());
+        responseObserver.onCompleted();
+    }
+
     @Override
     public void create(OrderRequest req, StreamObserver<OrderReply> responseObserver) {
-        List<Integer> authorizedIds = authorizeRequest("CreateOrder", responseObserver);
+        UserIds authorizedIds = authorizeRequest("CreateOrder", responseObserver);
         if (authorizedIds.isEmpty()) {
             return;
         }
@@ -117,23 +354,121 @@ public class OrdersImpl extends OrdersGrpc.OrdersImplBase {
             return;
         }
 
-        Session session = HibernateUtil.getSession();
+        // Products are mostly found in the second-level cache
+        Session session = UnitOfWork.current().session();
+        Set<Integer> productIds = req.getOrderProductListList().stream().map(ProductReply::getId)
+                .collect(Collectors.toSet());
+        Set<Product> products = getProducts(session, productIds, responseObserver);
+        if (null == products) {
+            return;
+        }
+        order.setProducts(products);
+
         session.beginTransaction();
         session.persist(order);
-        Set<Product> products = order.getProducts();
-        products.forEach(session::refresh);
-        session.getTransaction().commit();
-        session.close();
+        OrderEvent event = events.commit(session, getOrderEvent(OrderEvent.Type.CREATED, order, null));
+
+        responseObserver.onNext(event.getOrder());
+        responseObserver.onCompleted();
+    }
 
-        OrderReply reply = getOrderReplyFromOrder(order);
+    /**
+     * Creates valid orders in one transaction, invalid ones get their own
+     * results. Failures of the database, e.g. violated constraints, fail the
+     * whole call and no order is created.
+     */
+    @Override
+    public void createBatch(OrderBatchRequest req, StreamObserver<OrderBatchReply> responseObserver) {
+        UserIds authorizedIds = authorizeRequest("CreateOrder", responseObserver);
+        if (authorizedIds.isEmpty()) {
+            return;
+        }
 
-        responseObserver.onNext(reply);
+        List<OrderRequest> requests = req.getOrdersList();
+        if (requests.size() > CREATE_BATCH_MAX_ORDERS) {
+            responseObserver.onError(io.grpc.Status.INVALID_ARGUMENT
+                    .withDescription("Too many orders, up to " + CREATE_BATCH_MAX_ORDERS + " are allowed")
+                    .asRuntimeException(null));
+            return;
+        }
+
+        AuthInfo authInfo = Constant.CLIENT_CONTEXT_KEY.get();
+
+        // Validate products of all orders with a single query
+        Set<Integer> productIds = new HashSet<>();
+        requests.forEach(r -> r.getOrderProductListList().forEach(p -> productIds.add(p.getId())));
+
+        Session session = UnitOfWork.current().session();
+        Map<Integer, Product> products = productIds.isEmpty() ? Map.of()
+                : findProducts(session, productIds).stream()
+                        .collect(Collectors.toMap(Product::getId, Function.identity()));
+
+        OrderBatchResult[] results = new OrderBatchResult[requests.size()];
+        Order[] orders = new Order[requests.size()];
+        for (int i = 0; i < requests.size(); ++i) {
+            OrderRequest orderReq = requests.get(i);
+            if (!orderReq.hasAddress()) {
+                results[i] = getBatchResult(io.grpc.Status.INVALID_ARGUMENT, "Order address is required");
+                continue;
+            }
+
+            Order order = getOrderFromRequest(orderReq, authInfo.clientId);
+            if (!authorizedIds.contains(order.getUser())) {
+                results[i] = getBatchResult(io.grpc.Status.PERMISSION_DENIED, unauthorizedErrDescr);
+                continue;
+            }
+
+            Set<Product> orderProducts = new HashSet<>();
+            Set<Integer> missingIds = new HashSet<>();
+            orderReq.getOrderProductListList().forEach(p -> {
+                Product product = products.get(p.getId());
+                if (null == product) {
+                    missingIds.add(p.getId());
+                } else {
+                    orderProducts.add(product);
+                }
+            });
+            if (!missingIds.isEmpty()) {
+                results[i] = getBatchResult(io.grpc.Status.NOT_FOUND,
+                        "Products with ids: " + missingIds + " not found");
+                continue;
+            }
+
+            order.setProducts(orderProducts);
+            orders[i] = order;
+        }
+
+        // Inserts are grouped into JDBC batches on flush, ids come from pooled sequences
+        session.beginTransaction();
+        for (Order order : orders) {
+            if (null != order) {
+                session.persist(order);
+            }
+        }
+        List<OrderEvent.Builder> changes = new ArrayList<>();
+        for (Order order : orders) {
+            if (null != order) {
+                changes.add(getOrderEvent(OrderEvent.Type.CREATED, order, null));
+            }
+        }
+        Iterator<OrderEvent> created = events.commit(session, changes).iterator();
+
+        OrderBatchReply.Builder reply = OrderBatchReply.newBuilder();
+        for (int i = 0; i < orders.length; ++i) {
+            if (null != orders[i]) {
+                reply.addResults(OrderBatchResult.newBuilder().setOrder(created.next().getOrder()));
+            } else {
+                reply.addResults(results[i]);
+            }
+        }
+
+        responseObserver.onNext(reply.build());
         responseObserver.onCompleted();
     }
 
     @Override
     public void update(OrderRequest req, StreamObserver<OrderReply> responseObserver) {
-        List<Integer> authorizedIds = authorizeRequest("UpdateOrder", responseObserver);
+        UserIds authorizedIds = authorizeRequest("UpdateOrder", responseObserver);
         if (authorizedIds.isEmpty()) {
             return;
         }
@@ -149,7 +484,7 @@ public class OrdersImpl extends OrdersGrpc.OrdersImplBase {
             }
         }
 
-        Session session = HibernateUtil.getSession();
+        Session session = UnitOfWork.current().session();
         Order order = findOrder(session, req.getId(), authorizedIds, responseObserver);
         if (order == null) {
             return;
@@ -165,16 +500,21 @@ public class OrdersImpl extends OrdersGrpc.OrdersImplBase {
         // Order user changed
         // It means that new order will be removed and created for other user
         if (null != user && order.getUser() != user.getValue()) {
-            List<Integer> createAuthorizedIds = authorizeRequest("CreateOrder", responseObserver);
-            List<Integer> deleteAuthorizedIds = authorizeRequest("DeleteOrder", responseObserver);
+            UserIds createAuthorizedIds = authorizeRequest("CreateOrder", responseObserver);
+            UserIds deleteAuthorizedIds = authorizeRequest("DeleteOrder", responseObserver);
             if (!createAuthorizedIds.contains(user.getValue())
                     || !deleteAuthorizedIds.contains(order.getUser())) {
                 responseObserver.onError(io.grpc.Status.PERMISSION_DENIED
                         .withDescription(unauthorizedErrDescr)
                         .asRuntimeException(null));
+                return;
             }
         }
 
+        Integer previousUser = null;
+        if (null != user && order.getUser() != user.getValue()) {
+            previousUser = order.getUser();
+        }
         if (null != user) {
             order.setUser(user.getValue());
         }
@@ -189,41 +529,290 @@ public class OrdersImpl extends OrdersGrpc.OrdersImplBase {
         updateAddressFromRequest(address, req.getAddress());
 
         order.setUpdatedAt(Instant.now());
-        order.setUpdatedBy(authorizedIds.get(0));
+        order.setUpdatedBy(authorizedIds.first());
 
-        List<ProductReply> newProducts = req.getOrderProductListList();
-        Set<Integer> newIds = newProducts.stream().map(ProductReply::getId).collect(Collectors.toSet());
-        List<Product> products = findProducts(session, newIds);
-        if (products.size() != newProducts.size()) {
-            Set<Integer> ids = products.stream().map(Product::getId).collect(Collectors.toSet());
-            newIds.removeAll(ids);
+        Set<Integer> newIds = req.getOrderProductListList().stream().map(ProductReply::getId)
+                .collect(Collectors.toSet());
+        Set<Product> products = getProducts(session, newIds, responseObserver);
+        if (null == products) {
+            return;
+        }
 
-            responseObserver.onError(io.grpc.Status.NOT_FOUND
-                    .withDescription("Products with ids: " + newIds + " not found")
+        order.setProducts(products);
+
+        session.beginTransaction();
+        session.persist(order);
+        // Increments the version the event tells
+        session.flush();
+        OrderEvent event = events.commit(session, getOrderEvent(OrderEvent.Type.UPDATED, order, previousUser));
+
+        responseObserver.onNext(event.getOrder());
+        responseObserver.onCompleted();
+    }
+
+    /**
+     * Updates the masked columns with SQL statements guarded by the order
+     * version, so the order is not read before it is written. Product links
+     * are changed by deleting links not listed and inserting missing ones.
+     */
+    @Override
+    public void patch(OrderPatchRequest req, StreamObserver<OrderPatchReply> responseObserver) {
+        UserIds authorizedIds = authorizeRequest("UpdateOrder", responseObserver);
+        if (authorizedIds.isEmpty()) {
+            return;
+        }
+
+        Set<String> paths = new HashSet<>(req.getUpdateMask().getPathsList());
+        if (paths.isEmpty() || !PATCH_PATHS.containsAll(paths)) {
+            responseObserver.onError(io.grpc.Status.INVALID_ARGUMENT
+                    .withDescription("Update mask must list some of " + PATCH_PATHS)
                     .asRuntimeException(null));
             return;
         }
 
-        order.setProducts(products.stream().collect(Collectors.toSet()));
+        OrderRequest data = req.getOrder();
+        long id = data.getId();
+
+        // The order moved to other user is deleted for the old one and created for the new one
+        UserIds deleteAuthorizedIds = null;
+        if (paths.contains("user")) {
+            AuthInfo authInfo = Constant.CLIENT_CONTEXT_KEY.get();
+            if (!data.hasUser()) {
+                responseObserver.onError(io.grpc.Status.INVALID_ARGUMENT
+                        .withDescription("Order user is required")
+                        .asRuntimeException(null));
+                return;
+            }
+            int user = data.getUser().getValue();
+            if (!authorizedIds.contains(user) || !authInfo.getAuthorizedUsers("CreateOrder").contains(user)) {
+                responseObserver.onError(io.grpc.Status.PERMISSION_DENIED
+                        .withDescription(unauthorizedErrDescr)
+                        .asRuntimeException(null));
+                return;
+            }
+            deleteAuthorizedIds = authInfo.getAuthorizedUsers("DeleteOrder");
+        }
+
+        Session session = UnitOfWork.current().session();
+
+        Set<Integer> productIds = null;
+        if (paths.contains("orderProductList")) {
+            productIds = data.getOrderProductListList().stream().map(ProductReply::getId).collect(Collectors.toSet());
+            // Products are mostly found in the second-level cache
+            if (null == getProducts(session, productIds, responseObserver)) {
+                return;
+            }
+        }
+
+        StringBuilder sql = new StringBuilder(
+                "update orders set version = version + 1, updatedAt = :updatedAt, updatedBy = :updatedBy");
+        if (paths.contains("user")) {
+            sql.append(", user_id = :user");
+        }
+        if (paths.contains("customer")) {
+            sql.append(", customer = :customer");
+        }
+        if (paths.contains("comment")) {
+            sql.append(", comment = :comment");
+        }
+        sql.append(" where id = :id and version = :version and user_id in (:users)"
+                + " and deletedBy is null and deletedAt is null");
+        if (null != deleteAuthorizedIds) {
+            // Only the owner checked below, moving the order changes its version too
+            sql.append(" and user_id = :previousUser");
+        }
 
         session.beginTransaction();
-        session.persist(order);
-        session.getTransaction().commit();
-        session.close();
+        // Loads of the order that read it before the commit cannot cache it
+        lockCachedEntity(session, Order.class, id, req.getVersion());
+
+        Integer previousUser = null;
+        if (null != deleteAuthorizedIds) {
+            previousUser = (Integer) session.createNativeQuery("select user_id from orders where id = :id")
+                    .addSynchronizedQuerySpace(PATCH_QUERY_SPACE)
+                    .setParameter("id", id)
+                    .uniqueResult();
+            if (null != previousUser && authorizedIds.contains(previousUser)
+                    && previousUser != data.getUser().getValue() && !deleteAuthorizedIds.contains(previousUser)) {
+                session.getTransaction().rollback();
+                responseObserver.onError(io.grpc.Status.PERMISSION_DENIED
+                        .withDescription(unauthorizedErrDescr)
+                        .asRuntimeException(null));
+                return;
+            }
+        }
 
-        OrderReply reply = getOrderReplyFromOrder(order);
-        responseObserver.onNext(reply);
+        NativeQuery<?> update = session.createNativeQuery(sql.toString())
+                .addSynchronizedQuerySpace(PATCH_QUERY_SPACE)
+                .setParameter("updatedAt", Instant.now(), Instant.class)
+                .setParameter("updatedBy", authorizedIds.first())
+                .setParameter("id", id)
+                .setParameter("version", req.getVersion())
+                .setParameterList("users", authorizedIds.asList());
+        if (paths.contains("user")) {
+            update.setParameter("user", data.getUser().getValue());
+        }
+        if (paths.contains("customer")) {
+            update.setParameter("customer", data.getCustomer());
+        }
+        if (paths.contains("comment")) {
+            update.setParameter("comment", data.hasComment() ? data.getComment().getValue() : null, String.class);
+        }
+        if (null != deleteAuthorizedIds) {
+            update.setParameter("previousUser", previousUser, Integer.class);
+        }
+
+        if (update.executeUpdate() == 0) {
+            session.getTransaction().rollback();
+            reportPatchConflict(session, id, authorizedIds, responseObserver);
+            return;
+        }
+
+        // The order row is locked by the update, so its user and address are stable
+        Object[] row = (Object[]) session.createNativeQuery("select user_id, address_id from orders where id = :id")
+                .addSynchronizedQuerySpace(PATCH_QUERY_SPACE)
+                .setParameter("id", id)
+                .getSingleResult();
+        int user = (Integer) row[0];
+
+        Integer addressId = null;
+        AddressReply address = data.getAddress();
+        boolean allAddress = paths.contains("address");
+        List<String> addressColumns = new ArrayList<>();
+        if (allAddress || paths.contains("address.street")) {
+            addressColumns.add("street");
+        }
+        if (allAddress || paths.contains("address.zipCode")) {
+            addressColumns.add("zipCode");
+        }
+        if (allAddress || paths.contains("address.countryCode")) {
+            addressColumns.add("countryCode");
+        }
+        if (!addressColumns.isEmpty()) {
+            addressId = (Integer) row[1];
+            lockCachedEntity(session, Address.class, addressId, null);
+
+            NativeQuery<?> updateAddress = session.createNativeQuery("update addresses set "
+                    + addressColumns.stream().map(c -> c + " = :" + c).collect(Collectors.joining(", "))
+                    + " where id = :id")
+                    .addSynchronizedQuerySpace(PATCH_QUERY_SPACE)
+                    .setParameter("id", addressId);
+            if (addressColumns.contains("street")) {
+                updateAddress.setParameter("street", address.getStreet());
+            }
+            if (addressColumns.contains("zipCode")) {
+                updateAddress.setParameter("zipCode", address.getZipCode());
+            }
+            if (addressColumns.contains("countryCode")) {
+                updateAddress.setParameter("countryCode", address.getCountryCode());
+            }
+            updateAddress.executeUpdate();
+        }
+
+        if (null != productIds) {
+            lockCachedCollection(session, ORDER_PRODUCTS_ROLE, id);
+            NativeQuery<?> unlink = session.createNativeQuery(productIds.isEmpty()
+                    ? "delete from orders_products where orders_id = :id"
+                    : "delete from orders_products where orders_id = :id and products_id not in (:products)")
+                    .addSynchronizedQuerySpace(PATCH_QUERY_SPACE)
+                    .setParameter("id", id);
+            if (!productIds.isEmpty()) {
+                unlink.setParameterList("products", productIds);
+            }
+            unlink.executeUpdate();
+
+            if (!productIds.isEmpty()) {
+                session.createNativeQuery("insert into orders_products (orders_id, products_id)"
+                        + " select :id, p.id from products p where p.id in (:products) and not exists"
+                        + " (select 1 from orders_products op where op.orders_id = :id and op.products_id = p.id)")
+                        .addSynchronizedQuerySpace(PATCH_QUERY_SPACE)
+                        .setParameter("id", id)
+                        .setParameterList("products", productIds)
+                        .executeUpdate();
+            }
+        }
+
+        // Patch does not load the order, so the event tells the version only
+        OrderEvent.Builder change = OrderEvent.newBuilder()
+                .setType(OrderEvent.Type.UPDATED)
+                .setId(id)
+                .setUser(user)
+                .setVersion(req.getVersion() + 1);
+        if (null != previousUser && previousUser != user) {
+            change.setPreviousUser(Int32Value.of(previousUser));
+        }
+        events.commit(session, change);
+
+        responseObserver.onNext(OrderPatchReply.newBuilder()
+                .setId(id)
+                .setVersion(req.getVersion() + 1)
+                .build());
         responseObserver.onCompleted();
     }
 
+    /**
+     * Soft-locks the cached entity until the transaction completes, as
+     * Hibernate does for entities it updates itself. The entity is not
+     * cached while locked, and after that only by loads of a newer version or,
+     * if unversioned, by sessions started after the unlock.
+     */
+    private static void lockCachedEntity(Session session, Class<?> entityClass, Object id, Object version) {
+        SessionImplementor s = session.unwrap(SessionImplementor.class);
+        EntityPersister persister = s.getFactory().getRuntimeMetamodels().getMappingMetamodel()
+                .getEntityDescriptor(entityClass);
+        if (persister.hasCache()) {
+            lockCacheItem(s, persister.getCacheAccessStrategy(), persister.getCacheAccessStrategy()
+                    .generateCacheKey(id, persister, s.getFactory(), s.getTenantIdentifier()), version);
+        }
+    }
+
+    /**
+     * Soft-locks the cached collection of the owner until the transaction
+     * completes.
+     */
+    private static void lockCachedCollection(Session session, String role, Object ownerId) {
+        SessionImplementor s = session.unwrap(SessionImplementor.class);
+        CollectionPersister persister = s.getFactory().getRuntimeMetamodels().getMappingMetamodel()
+                .getCollectionDescriptor(role);
+        if (persister.hasCache()) {
+            lockCacheItem(s, persister.getCacheAccessStrategy(), persister.getCacheAccessStrategy()
+                    .generateCacheKey(ownerId, persister, s.getFactory(), s.getTenantIdentifier()), null);
+        }
+    }
+
+    private static void lockCacheItem(SessionImplementor session, CachedDomainDataAccess access, Object key,
+            Object version) {
+        SoftLock lock = access.lockItem(session, key, version);
+        // Runs on commit and rollback alike
+        session.getActionQueue().registerProcess((success, s) -> access.unlockItem(s, key, lock));
+    }
+
+    /**
+     * Tells why a patch has not updated the order: either it is not found or
+     * its version differs.
+     */
+    private static <T> void reportPatchConflict(Session session, long id, UserIds user,
+            StreamObserver<T> responseObserver) {
+        Order order = getUserOrderById(session, id, user);
+        if (null == order) {
+            responseObserver.onError(io.grpc.Status.NOT_FOUND
+                    .withDescription("Order with id specified not found")
+                    .asRuntimeException(null));
+        } else {
+            responseObserver.onError(io.grpc.Status.ABORTED
+                    .withDescription("Order has been changed, current version is " + order.getVersion())
+                    .asRuntimeException(null));
+        }
+    }
+
     @Override
     public void delete(OrderRequest.Id req, StreamObserver<OrderReply> responseObserver) {
-        List<Integer> authorizedIds = authorizeRequest("DeleteOrder", responseObserver);
+        UserIds authorizedIds = authorizeRequest("DeleteOrder", responseObserver);
         if (authorizedIds.isEmpty()) {
             return;
         }
 
-        Session session = HibernateUtil.getSession();
+        Session session = UnitOfWork.current().session();
         Order order = getOrderById(session, req.getId());
         if (null == order) {
             responseObserver.onError(io.grpc.Status.NOT_FOUND
@@ -238,79 +827,135 @@ public class OrdersImpl extends OrdersGrpc.OrdersImplBase {
         }
 
         order.setDeletedAt(Instant.now());
-        order.setDeletedBy(authorizedIds.get(0));
+        order.setDeletedBy(authorizedIds.first());
 
         session.beginTransaction();
         session.persist(order);
-        session.getTransaction().commit();
-
-        OrderReply reply = getOrderReplyFromOrder(order);
+        session.flush();
+        OrderEvent event = events.commit(session, getOrderEvent(OrderEvent.Type.DELETED, order, null));
 
-        session.close();
-
-        responseObserver.onNext(reply);
+        responseObserver.onNext(event.getOrder());
         responseObserver.onCompleted();
     }
 
-    private static List<Integer> getUsersByRole(AuthInfo authInfo, String role) {
-        ArrayList<Integer> l = new ArrayList<>();
-        if (null != authInfo && null != authInfo.clientRoles) {
-            for (String s : authInfo.clientRoles) {
-                String[] parts = s.split("\\/");
-                if (parts.length == 2 && parts[1].equals(role)) {
-                    try {
-                        l.add(Integer.parseInt(parts[0]));
-                    } catch (Exception e) {
-                        // Ignore this role
-                    }
-                } else if (s.equals(role)) {
-                    l.add(authInfo.clientId);
-                }
-            }
+    /**
+     * Streams changes of orders as they are committed. The stream is ended
+     * by the client, or by the server on shutdown.
+     */
+    @Override
+    public void watch(OrderWatchRequest req, StreamObserver<OrderEvent> responseObserver) {
+        UserIds authorizedIds = authorizeRequest("GetOrder", responseObserver);
+        if (authorizedIds.isEmpty()) {
+            return;
         }
 
-        return l;
+        events.subscribe(authorizedIds, req, (ServerCallStreamObserver<OrderEvent>) responseObserver);
     }
 
-    private static <T> List<Integer> authorizeRequest(String role, StreamObserver<T> responseObserver) {
+    /**
+     * Returns the event of the change of the order, its sequence is set when
+     * the change is committed.
+     */
+    private static OrderEvent.Builder getOrderEvent(OrderEvent.Type type, Order order, Integer previousUser) {
+        OrderEvent.Builder event = OrderEvent.newBuilder()
+                .setType(type)
+                .setId(order.getId())
+                .setUser(order.getUser())
+                .setVersion(order.getVersion())
+                .setOrder(getOrderReplyFromOrder(order));
+        if (null != previousUser) {
+            event.setPreviousUser(Int32Value.of(previousUser));
+        }
+        return event;
+    }
+
+    static <T> UserIds authorizeRequest(String role, StreamObserver<T> responseObserver) {
         AuthInfo authInfo = Constant.CLIENT_CONTEXT_KEY.get();
-        List<Integer> adminIds = getUsersByRole(authInfo, "Admin");
-        List<Integer> ids = getUsersByRole(authInfo, role);
-        if (ids.isEmpty() && adminIds.isEmpty()) {
+        UserIds ids = null != authInfo ? authInfo.getAuthorizedUsers(role) : UserIds.EMPTY;
+        if (ids.isEmpty()) {
             logger.warning("Unauthorized " + role + " request");
             responseObserver.onError(io.grpc.Status.PERMISSION_DENIED
                     .withDescription(unauthorizedErrDescr)
                     .asRuntimeException(null));
         }
 
-        ids.addAll(adminIds);
         return ids;
     }
 
-    private static Order getUserOrderById(Session session, long id, List<Integer> user) {
-        Query<Order> query = session.createQuery(
-                "from Order where id = :id and user in (:user) and deletedBy is null and deletedAt is null",
-                Order.class);
-        query.setParameter("id", id);
-        query.setParameter("user", user);
-        return query.getSingleResultOrNull();
+    private static Order getUserOrderById(Session session, long id, UserIds user) {
+        Order order = getOrderById(session, id);
+        return null != order && user.contains(order.getUser()) ? order : null;
     }
 
+    /**
+     * Finds an order by id, the order with its address and products is
+     * usually taken from the second-level cache. Deleted orders are not
+     * returned.
+     */
     private static Order getOrderById(Session session, long id) {
+        Order order = session.find(Order.class, id);
+        return null != order && null == order.getDeletedBy() && null == order.getDeletedAt() ? order : null;
+    }
+
+    /**
+     * Loads orders with their addresses and products by a single query.
+     * Orders are returned in the order of ids given.
+     */
+    private static List<Order> getOrdersWithDetails(Session session, List<Long> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+
         Query<Order> query = session.createQuery(
-                "from Order where id = :id and deletedBy is null and deletedAt is null",
+                "select o from Order o join fetch o.address left join fetch o.products where o.id in (:ids)",
                 Order.class);
-        query.setParameter("id", id);
-        return query.getSingleResultOrNull();
+        query.setParameter("ids", ids);
+        Map<Long, Order> loaded = query.list().stream()
+                .collect(Collectors.toMap(Order::getId, Function.identity(), (a, b) -> a));
+
+        List<Order> orders = new ArrayList<>(ids.size());
+        ids.forEach(id -> {
+            Order order = loaded.get(id);
+            if (null != order) {
+                orders.add(order);
+            }
+        });
+        return orders;
     }
 
+    /**
+     * Loads products by ids, those found in the second-level cache are not
+     * queried. Products not found are skipped.
+     */
     private static List<Product> findProducts(Session session, Set<Integer> ids) {
-        Query<Product> query = session.createQuery("from Product where id in (:ids)", Product.class);
-        query.setParameter("ids", ids);
-        return query.list();
+        return session.byMultipleIds(Product.class)
+                .enableSessionCheck(true)
+                .multiLoad(new ArrayList<>(ids))
+                .stream()
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Returns products with the ids given or null if some of them are not
+     * found, reporting NOT_FOUND to the observer.
+     */
+    private static <T> Set<Product> getProducts(Session session, Set<Integer> ids,
+            StreamObserver<T> responseObserver) {
+        List<Product> products = ids.isEmpty() ? List.of() : findProducts(session, ids);
+        if (products.size() != ids.size()) {
+            Set<Integer> missingIds = new HashSet<>(ids);
+            products.forEach(p -> missingIds.remove(p.getId()));
+
+            responseObserver.onError(io.grpc.Status.NOT_FOUND
+                    .withDescription("Products with ids: " + missingIds + " not found")
+                    .asRuntimeException(null));
+            return null;
+        }
+        return new HashSet<>(products);
     }
 
-    private static <T> Order findOrder(Session session, long id, List<Integer> user,
+    private static <T> Order findOrder(Session session, long id, UserIds user,
             StreamObserver<T> responseObserver) {
         Order order = getUserOrderById(session, id, user);
         if (null == order) {
@@ -321,6 +966,13 @@ public class OrdersImpl extends OrdersGrpc.OrdersImplBase {
         return order;
     }
 
+    private static OrderBatchResult getBatchResult(io.grpc.Status status, String description) {
+        return OrderBatchResult.newBuilder()
+                .setCode(status.getCode().value())
+                .setDescription(description)
+                .build();
+    }
+
     private static Address getAddressFromRequest(AddressReply addressReply) {
         Address address = new Address();
         updateAddressFromRequest(address, addressReply);
@@ -334,6 +986,10 @@ public class OrdersImpl extends OrdersGrpc.OrdersImplBase {
         return address;
     }
 
+    /**
+     * Creates an order without products, callers set the products they have
+     * loaded.
+     */
     private static Order getOrderFromRequest(OrderRequest req, int createdBy) {
         Order order = new Order();
         order.setCreatedAt(Instant.now());
@@ -359,20 +1015,10 @@ public class OrdersImpl extends OrdersGrpc.OrdersImplBase {
         Address address = getAddressFromRequest(addressReply);
         address.setOrder(order);
         order.setAddress(address);
-
-        List<ProductReply> products = req.getOrderProductListList();
-        HashSet<Product> orderProducts = new HashSet<>();
-        products.forEach(p -> {
-            Product product = new Product();
-            product.setId(p.getId());
-            orderProducts.add(product);
-        });
-
-        order.setProducts(orderProducts);
         return order;
     }
 
-    private static OrderReply getOrderReplyFromOrder(Order order) {
+    static OrderReply getOrderReplyFromOrder(Order order) {
         if (order == null) {
             throw new IllegalArgumentException();
         }
@@ -399,8 +1045,9 @@ public class OrdersImpl extends OrdersGrpc.OrdersImplBase {
             orderReqBuilder.setComment(StringValue.newBuilder().setValue(comment));
         }
 
+        // Products are listed by id, so replies do not depend on the set order
         ProductReply.Builder productBuilder = ProductReply.newBuilder();
-        order.getProducts().forEach(p -> {
+        order.getProducts().stream().sorted(Comparator.comparing(Product::getId)).forEach(p -> {
             ProductReply product = productBuilder.clear()
                     .setId(p.getId())
                     .setName(p.getName())
@@ -413,7 +1060,8 @@ public class OrdersImpl extends OrdersGrpc.OrdersImplBase {
         OrderReply.Builder orderBuilder = OrderReply.newBuilder();
         orderBuilder.setData(orderReqBuilder)
                 .setCreatedBy(order.getCreatedBy())
-                .setCreatedAt(order.getCreatedAt().toString());
+                .setCreatedAt(order.getCreatedAt().toString())
+                .setVersion(order.getVersion());
 
         Integer updatedBy = order.getUpdatedBy();
         if (null != updatedBy) {
@@ -437,4 +1085,116 @@ public class OrdersImpl extends OrdersGrpc.OrdersImplBase {
 
         return orderBuilder.build();
     }
+
+    /**
+     * Builds OrderReplyV2, the same fields as getOrderReplyFromOrder() sets
+     * without text times and wrapper messages.
+     */
+    static OrderReplyV2 getOrderReplyV2FromOrder(Order order) {
+        Address address = order.getAddress();
+        OrderReplyV2.Builder builder = OrderReplyV2.newBuilder()
+                .setId(order.getId())
+                .setCustomer(order.getCustomer())
+                .setCreatedAt(order.getCreatedAt().toEpochMilli())
+                .setCreatedBy(order.getCreatedBy())
+                .setVersion(order.getVersion());
+        builder.getAddressBuilder()
+                .setId(address.getId())
+                .setStreet(address.getStreet())
+                .setZipCode(address.getZipCode())
+                .setCountryCode(address.getCountryCode());
+
+        Integer user = order.getUser();
+        if (null != user) {
+            builder.setUser(user);
+        }
+        String comment = order.getComment();
+        if (null != comment) {
+            builder.setComment(comment);
+        }
+
+        // Products are listed by id, so replies do not depend on the set order
+        order.getProducts().stream().sorted(Comparator.comparing(Product::getId))
+                .forEach(p -> builder.addProductsBuilder()
+                        .setId(p.getId())
+                        .setName(p.getName())
+                        .setDescription(p.getDescription()));
+
+        if (null != order.getUpdatedAt()) {
+            builder.setUpdatedAt(order.getUpdatedAt().toEpochMilli());
+        }
+        if (null != order.getUpdatedBy()) {
+            builder.setUpdatedBy(order.getUpdatedBy());
+        }
+        if (null != order.getDeletedAt()) {
+            builder.setDeletedAt(order.getDeletedAt().toEpochMilli());
+        }
+        if (null != order.getDeletedBy()) {
+            builder.setDeletedBy(order.getDeletedBy());
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Sends orders read through a forward-only cursor while the client is ready
+     * to receive them. Each order is detached after it is sent, so memory usage
+     * does not depend on the number of orders streamed.
+     */
+    private static final class OrderStreamer implements Runnable {
+        private final Session session;
+        private final ScrollableResults<Order> results;
+        private final ServerCallStreamObserver<OrderReply> observer;
+        private boolean closed;
+
+        OrderStreamer(Session session, ScrollableResults<Order> results,
+                ServerCallStreamObserver<OrderReply> observer) {
+            this.session = session;
+            this.results = results;
+            this.observer = observer;
+        }
+
+        void start() {
+            // Both handlers are invoked serially by the call executor
+            observer.setOnCancelHandler(this::close);
+            observer.setOnReadyHandler(this);
+        }
+
+        @Override
+        public void run() {
+            if (closed) {
+                return;
+            }
+
+            try {
+                while (observer.isReady()) {
+                    if (!results.next()) {
+                        close();
+                        observer.onCompleted();
+                        return;
+                    }
+
+                    Order order = results.get();
+                    observer.onNext(getOrderReplyFromOrder(order));
+                    session.detach(order);
+                }
+            } catch (RuntimeException e) {
+                close();
+                logger.warning("Orders streaming failed: " + e);
+                observer.onError(io.grpc.Status.INTERNAL
+                        .withDescription("Orders streaming failed")
+                        .withCause(e)
+                        .asRuntimeException());
+            }
+        }
+
+        private void close() {
+            if (!closed) {
+                closed = true;
+                results.close();
+                // The session itself is closed with the unit of work of the call
+                session.getTransaction().rollback();
+            }
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,33 @@
+package orders.service;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+/**
+ * Opaque cursor of keyset pagination. It holds the id of the last order of a
+ * page, so the next page is read with an index seek instead of an offset scan.
+ */
+final class PageToken {
+    private static final byte VERSION = 1;
+    private static final int LENGTH = 1 + Long.BYTES;
+
+    private PageToken() {
+        throw new AssertionError();
+    }
+
+    static String encode(long lastId) {
+        ByteBuffer buffer = ByteBuffer.allocate(LENGTH).put(VERSION).putLong(lastId);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+    }
+
+    /**
+     * @throws IllegalArgumentException if the token is malformed
+     */
+    static long decode(String token) {
+        byte[] bytes = Base64.getUrlDecoder().decode(token);
+        if (bytes.length != LENGTH || bytes[0] != VERSION) {
+            throw new IllegalArgumentException("Invalid page token");
+        }
+        return ByteBuffer.wrap(bytes, 1, Long.BYTES).getLong();
+    }
+}
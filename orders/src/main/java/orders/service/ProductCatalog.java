@@ -0,0 +1,169 @@
+package orders.service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.hibernate.Session;
+
+import orders.ProductListReply;
+import orders.ProductReply;
+import orders.hibernate.HibernateUtil;
+import orders.hibernate.model.Product;
+
+/**
+ * In-memory catalog of products.
+ * Products change rarely, so replies of Products service are built once per
+ * catalog version and served from an immutable snapshot that is replaced
+ * atomically on refresh.
+ */
+public class ProductCatalog implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(ProductCatalog.class.getName());
+
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(Snapshot.EMPTY);
+    private final AtomicLong loads = new AtomicLong();
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Immutable view of the products table.
+     */
+    public static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(0, 0, ProductListReply.getDefaultInstance(), Map.of());
+
+        private final long version;
+        /* Number of the load the products come from */
+        private final long load;
+        private final ProductListReply list;
+        private final Map<Integer, ProductReply> products;
+
+        private Snapshot(long version, long load, ProductListReply list, Map<Integer, ProductReply> products) {
+            this.version = version;
+            this.load = load;
+            this.list = list;
+            this.products = products;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * Returns all products ordered by name.
+         */
+        public ProductListReply getList() {
+            return list;
+        }
+
+        /**
+         * Returns the product with the id given or null if the snapshot does
+         * not contain it.
+         */
+        public ProductReply get(int id) {
+            return products.get(id);
+        }
+    }
+
+    public Snapshot get() {
+        return snapshot.get();
+    }
+
+    /**
+     * Reloads products from the database. The catalog version is kept if
+     * nothing has changed, the snapshot of a later refresh is never replaced.
+     */
+    public Snapshot refresh() {
+        // Numbered before the query, a slower refresh loads older products
+        long load = loads.incrementAndGet();
+        List<Product> products;
+        try (Session session = HibernateUtil.getSession()) {
+            products = session.createQuery("from Product order by name", Product.class).list();
+        }
+
+        ProductListReply.Builder reply = ProductListReply.newBuilder();
+        ProductReply.Builder productBuilder = ProductReply.newBuilder();
+        products.forEach(p -> reply.addProductList(ProductsImpl.getProductReplyFromProduct(productBuilder, p)));
+        return install(load, reply.build());
+    }
+
+    /**
+     * Replaces the snapshot with the products of the load given, unless the
+     * snapshot comes from a later load.
+     */
+    Snapshot install(long load, ProductListReply list) {
+        Snapshot current;
+        Snapshot next;
+        do {
+            current = snapshot.get();
+            if (current.load >= load) {
+                return current;
+            }
+
+            if (current.list.equals(list)) {
+                // Same products, only remember they are still current
+                next = new Snapshot(current.version, load, current.list, current.products);
+            } else {
+                Map<Integer, ProductReply> byId = new HashMap<>();
+                list.getProductListList().forEach(p -> byId.put(p.getId(), p));
+                next = new Snapshot(current.version + 1, load, list, Map.copyOf(byId));
+            }
+        } while (!snapshot.compareAndSet(current, next));
+
+        if (next.version != current.version) {
+            logger.info("Products catalog version " + next.version + " loaded, " + list.getProductListCount()
+                    + " products");
+        }
+        return next;
+    }
+
+    /**
+     * Schedules refresh in the background. The first refresh is done immediately
+     * in the calling thread.
+     */
+    public synchronized void start(long period, TimeUnit unit) {
+        refresh();
+
+        if (scheduler != null) {
+            return;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "products-catalog");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::refreshQuietly, period, period, unit);
+    }
+
+    /**
+     * Requests refresh in the background, e.g. when a product missing from the
+     * snapshot was found in the database.
+     */
+    public synchronized void refreshAsync() {
+        if (scheduler != null) {
+            scheduler.execute(this::refreshQuietly);
+        }
+    }
+
+    private void refreshQuietly() {
+        try {
+            refresh();
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Products catalog refresh failed", e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+}
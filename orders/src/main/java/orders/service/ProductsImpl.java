@@ -1,55 +1,69 @@
 package orders.service;
 
-import java.util.List;
-
 import orders.*;
 import org.hibernate.Session;
-import org.hibernate.query.Query;
 
-import orders.hibernate.HibernateUtil;
+import orders.hibernate.UnitOfWork;
 import orders.hibernate.model.Product;
 
 import io.grpc.stub.StreamObserver;
 
 import com.google.protobuf.Empty;
 public class ProductsImpl extends orders.ProductsGrpc.ProductsImplBase {
-    @Override
-    public void list(Empty request, StreamObserver<orders.ProductListReply> responseObserver) {
-        Session session = HibernateUtil.getSession();
+    private final ProductCatalog catalog;
+    /* Products missing in the catalog snapshot are looked up once for concurrent callers */
+    private final SingleFlight<Integer, ProductReply> gets = new SingleFlight<>("Products.Get");
 
-        Query<Product> query = session.createQuery("from Product order by name", Product.class);
-        List<Product> products = query.list();
+    public ProductsImpl(ProductCatalog catalog) {
+        this.catalog = catalog;
+    }
 
-        ProductListReply.Builder reply = ProductListReply.newBuilder();
-        ProductReply.Builder productBuilder = ProductReply.newBuilder();
-        products.forEach(p -> {
-            ProductReply product = getProductReplyFromProduct(productBuilder, p);
-            reply.addProductList(product);
-        });
+    /**
+     * Returns lookups of Get shared by concurrent callers.
+     */
+    public SingleFlight<?, ?> getGetFlight() {
+        return gets;
+    }
 
-        responseObserver.onNext(reply.build());
+    @Override
+    public void list(Empty request, StreamObserver<orders.ProductListReply> responseObserver) {
+        responseObserver.onNext(catalog.get().getList());
         responseObserver.onCompleted();
     }
 
     @Override
     public void get(orders.ProductRequest.Id request, StreamObserver<orders.ProductReply> responseObserver) {
+        ProductReply reply = catalog.get().get(request.getId());
 
-        Session session = HibernateUtil.getSession();
-        Query<Product> query = session.createQuery("from Product where id = :id", Product.class);
-        query.setParameter("id", request.getId());
+        if (null == reply) {
+            // The product may have been added after the catalog snapshot was taken
+            reply = gets.load(request.getId(), () -> {
+                Session session = UnitOfWork.current().readOnlySession();
+                Product p = session.find(Product.class, request.getId());
+                if (null == p) {
+                    return null;
+                }
+                catalog.refreshAsync();
+                return getProductReplyFromProduct(ProductReply.newBuilder(), p);
+            });
 
-        Product p = query.getSingleResultOrNull();
+            if (null == reply) {
+                responseObserver.onError(io.grpc.Status.NOT_FOUND
+                        .withDescription("Product with id specified not found")
+                        .asRuntimeException(null));
+                return;
+            }
+        }
 
-        ProductReply.Builder productBuilder = ProductReply.newBuilder();
-        responseObserver.onNext(getProductReplyFromProduct(productBuilder, p));
+        responseObserver.onNext(reply);
         responseObserver.onCompleted();
     }
 
-    private static ProductReply getProductReplyFromProduct(ProductReply.Builder productBuilder, Product product) {
+    static ProductReply getProductReplyFromProduct(ProductReply.Builder productBuilder, Product product) {
         return productBuilder.clear()
                 .setId(product.getId())
                 .setName(product.getName())
                 .setDescription(product.getDescription())
                 .build();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,119 @@
+package orders.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+import io.grpc.Context;
+import io.grpc.Contexts;
+
+/**
+ * Coalesces concurrent loads of the same key. The first caller of a key loads
+ * the value, callers arriving while the load is in flight wait for it and get
+ * the same value or exception. Nothing is cached, the next caller after the
+ * load completes loads again.
+ * <p>
+ * Callers stop waiting when their calls are cancelled. When the call of the
+ * loading caller is cancelled, its load fails and the waiting callers load
+ * again instead of sharing the failure.
+ */
+public final class SingleFlight<K, V> {
+    private final String name;
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder shared = new LongAdder();
+
+    /**
+     * @param name name of the loads in metrics, e.g. the method
+     */
+    public SingleFlight(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the value of the key loaded by this caller or by the caller
+     * already loading it. The value may be null.
+     */
+    public V load(K key, Supplier<V> loader) {
+        while (true) {
+            CompletableFuture<V> flight = new CompletableFuture<>();
+            CompletableFuture<V> leader = inFlight.putIfAbsent(key, flight);
+            if (null != leader) {
+                shared.increment();
+                try {
+                    return await(leader);
+                } catch (LeaderCancelledException e) {
+                    continue;
+                }
+            }
+
+            loads.increment();
+            try {
+                V value = loader.get();
+                flight.complete(value);
+                return value;
+            } catch (RuntimeException | Error e) {
+                flight.completeExceptionally(Context.current().isCancelled() ? new LeaderCancelledException() : e);
+                throw e;
+            } finally {
+                inFlight.remove(key, flight);
+            }
+        }
+    }
+
+    private static <V> V await(CompletableFuture<V> flight) {
+        Context context = Context.current();
+        CompletableFuture<V> waiting = flight.copy();
+        Context.CancellationListener listener = c -> waiting.completeExceptionally(
+                Contexts.statusFromCancelled(c).asRuntimeException());
+        context.addListener(listener, MoreExecutors.directExecutor());
+        try {
+            return waiting.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        } finally {
+            context.removeListener(listener);
+        }
+    }
+
+    /* Load failed because the call of the loading caller has been cancelled */
+    private static final class LeaderCancelledException extends RuntimeException {
+        LeaderCancelledException() {
+            super(null, null, false, false);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns how many loads have been run.
+     */
+    public long getLoadCount() {
+        return loads.sum();
+    }
+
+    /**
+     * Returns how many callers got a value loaded by another caller.
+     */
+    public long getSharedCount() {
+        return shared.sum();
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+}
@@ -0,0 +1,3 @@
+-- Orders are listed and counted among active ones only, a partial index of them replaces the one of all orders
+DROP INDEX orders_user_id_idx;
+CREATE INDEX orders_active_user_id_idx ON orders (user_id, id DESC) WHERE deletedBy IS NULL AND deletedAt IS NULL;
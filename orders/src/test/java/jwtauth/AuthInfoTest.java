@@ -0,0 +1,63 @@
+package jwtauth;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+class AuthInfoTest {
+    private static final int CLIENT = 3;
+
+    @Test
+    void grantsBareRolesToClient() {
+        AuthInfo info = new AuthInfo(CLIENT, new String[] { "GetOrder" });
+
+        assertEquals(List.of(CLIENT), info.getAuthorizedUsers("GetOrder").asList());
+        assertEquals(CLIENT, info.getAuthorizedUsers("GetOrder").first());
+        assertEquals(Set.of("GetOrder"), info.getRoles());
+    }
+
+    @Test
+    void grantsRolesForUsers() {
+        AuthInfo info = new AuthInfo(CLIENT, new String[] { "7/GetOrder", "GetOrder", "7/GetOrder", "5/DeleteOrder" });
+
+        UserIds getOrder = info.getAuthorizedUsers("GetOrder");
+        assertEquals(List.of(CLIENT, 7), getOrder.asList());
+        // the first grant is the user the client acts for by default
+        assertEquals(7, getOrder.first());
+        assertEquals(List.of(5), info.getAuthorizedUsers("DeleteOrder").asList());
+    }
+
+    @Test
+    void ignoresMalformedGrants() {
+        AuthInfo info = new AuthInfo(CLIENT, new String[] { "x/Role", "/Role", "1/2/Role", "4/" });
+
+        UserIds role = info.getAuthorizedUsers("Role");
+        assertTrue(role.isEmpty());
+        assertFalse(info.getAuthorizedUsers("2/Role").contains(1));
+        assertFalse(info.getAuthorizedUsers("2/Role").contains(2));
+        assertFalse(info.getRoles().contains("Role"));
+    }
+
+    @Test
+    void addsAdministeredUsersToEveryRole() {
+        AuthInfo info = new AuthInfo(CLIENT, new String[] { "GetOrder", "5/Admin", "9/GetOrder", "5/GetOrder" });
+
+        UserIds getOrder = info.getAuthorizedUsers("GetOrder");
+        assertEquals(List.of(CLIENT, 5, 9), getOrder.asList());
+        assertEquals(CLIENT, getOrder.first());
+        // roles not granted are still granted for the users administered
+        assertEquals(List.of(5), info.getAuthorizedUsers("DeleteOrder").asList());
+        assertEquals(5, info.getAuthorizedUsers("DeleteOrder").first());
+    }
+
+    @Test
+    void grantsNothingForRolesNotGranted() {
+        AuthInfo info = new AuthInfo(CLIENT, new String[] { "GetOrder" });
+
+        assertSame(UserIds.EMPTY, info.getAuthorizedUsers("DeleteOrder"));
+        assertTrue(new AuthInfo(CLIENT, new String[0]).getAuthorizedUsers("GetOrder").isEmpty());
+    }
+}
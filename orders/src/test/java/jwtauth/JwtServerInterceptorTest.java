@@ -0,0 +1,109 @@
+package jwtauth;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.Status;
+
+class JwtServerInterceptorTest {
+    private final JwtServerInterceptor interceptor = new JwtServerInterceptor(100, 1, TimeUnit.HOURS);
+
+    @Test
+    void servesVerifiedTokenFromCache() {
+        String token = JwtTokens.issue(5, 1, TimeUnit.HOURS, "GetOrder", "7/GetOrder");
+
+        Call first = intercept(token);
+        assertNull(first.status);
+        assertEquals(5, first.authInfo.clientId);
+        assertEquals(0, interceptor.getCacheStats().hitCount());
+
+        Call second = intercept(token);
+        assertSame(first.authInfo, second.authInfo);
+        assertEquals(1, interceptor.getCacheStats().hitCount());
+        assertEquals(1, interceptor.getCacheSize());
+    }
+
+    @Test
+    void expiresCachedTokenAtExpiration() throws InterruptedException {
+        // expiration of a token is kept in seconds
+        String token = JwtTokens.issue(5, 2, TimeUnit.SECONDS, "GetOrder");
+        assertNull(intercept(token).status);
+        assertNull(intercept(token).status);
+        assertEquals(1, interceptor.getCacheStats().hitCount());
+
+        Thread.sleep(2100);
+
+        Call expired = intercept(token);
+        assertEquals(Status.Code.UNAUTHENTICATED, expired.status.getCode());
+        assertNull(expired.authInfo);
+        assertEquals(0, interceptor.getCacheSize());
+    }
+
+    @Test
+    void doesNotCacheInvalidTokens() {
+        String token = JwtTokens.issue(5, 1, TimeUnit.HOURS, "GetOrder");
+        assertNull(intercept(token).status);
+
+        // the signature no longer matches the claims
+        String tampered = token.substring(0, token.lastIndexOf('.') + 1)
+                + JwtTokens.issue(6, 1, TimeUnit.HOURS, "Admin").substring(token.lastIndexOf('.') + 1);
+        String expired = JwtTokens.issue(5, -1, TimeUnit.HOURS, "GetOrder");
+        for (int i = 0; i < 2; ++i) {
+            assertEquals(Status.Code.UNAUTHENTICATED, intercept(tampered).status.getCode());
+            assertEquals(Status.Code.UNAUTHENTICATED, intercept(expired).status.getCode());
+        }
+
+        assertEquals(0, interceptor.getCacheStats().hitCount());
+        assertEquals(1, interceptor.getCacheSize());
+    }
+
+    private Call intercept(String token) {
+        Metadata headers = new Metadata();
+        headers.put(Constant.AUTHORIZATION_METADATA_KEY, Constant.BEARER_TYPE + " " + token);
+        Call call = new Call();
+        interceptor.interceptCall(call, headers, (c, h) -> {
+            call.authInfo = Constant.CLIENT_CONTEXT_KEY.get();
+            return new ServerCall.Listener<Void>() {
+            };
+        });
+        return call;
+    }
+
+    private static final class Call extends ServerCall<Void, Void> {
+        AuthInfo authInfo;
+        Status status;
+
+        @Override
+        public void request(int numMessages) {
+        }
+
+        @Override
+        public void sendHeaders(Metadata headers) {
+        }
+
+        @Override
+        public void sendMessage(Void message) {
+        }
+
+        @Override
+        public void close(Status status, Metadata trailers) {
+            this.status = status;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public MethodDescriptor<Void, Void> getMethodDescriptor() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package jwtauth;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class UserIdsTest {
+
+    @Test
+    void sortsAndDeduplicatesIds() {
+        UserIds ids = UserIds.of(new int[] { 9, 2, 9, 5, 2, 0 }, 5);
+
+        assertEquals(List.of(2, 5, 9), ids.asList());
+        assertEquals(3, ids.size());
+        assertEquals(9, ids.first());
+        assertTrue(ids.contains(5));
+        assertFalse(ids.contains(0));
+        assertSame(UserIds.EMPTY, UserIds.of(new int[] { 1 }, 0));
+        assertThrows(IndexOutOfBoundsException.class, UserIds.EMPTY::first);
+    }
+
+    @Test
+    void unionKeepsFirstIdOfThisSet() {
+        UserIds granted = UserIds.of(new int[] { 7, 3 }, 2);
+        UserIds admins = UserIds.of(new int[] { 5, 3, 11 }, 3);
+
+        UserIds union = granted.union(admins);
+        assertEquals(List.of(3, 5, 7, 11), union.asList());
+        assertEquals(7, union.first());
+        assertEquals(5, admins.union(granted).first());
+        assertEquals(union, admins.union(granted));
+
+        assertSame(granted, granted.union(UserIds.EMPTY));
+        assertSame(admins, UserIds.EMPTY.union(admins));
+    }
+}
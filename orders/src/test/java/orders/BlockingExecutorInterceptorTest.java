@@ -0,0 +1,84 @@
+package orders;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.grpc.Context;
+import io.grpc.Deadline;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+
+class BlockingExecutorInterceptorTest {
+    private final ExecutorService executor = Executors.newFixedThreadPool(2, r -> new Thread(r, "blocking"));
+    private Server server;
+    private ManagedChannel channel;
+
+    @BeforeEach
+    void start() throws Exception {
+        ProductsGrpc.ProductsImplBase service = new ProductsGrpc.ProductsImplBase() {
+            @Override
+            public void get(ProductRequest.Id request, StreamObserver<ProductReply> responseObserver) {
+                if (request.getId() < 0) {
+                    throw new IllegalArgumentException("negative id");
+                }
+                Deadline deadline = Context.current().getDeadline();
+                responseObserver.onNext(ProductReply.newBuilder()
+                        .setId(request.getId())
+                        .setName(Thread.currentThread().getName())
+                        .setDescription(deadline == null ? "" : deadline.toString())
+                        .build());
+                responseObserver.onCompleted();
+            }
+        };
+        String name = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(name)
+                .directExecutor()
+                .addService(ServerInterceptors.intercept(service, new BlockingExecutorInterceptor(executor, Set.of())))
+                .build()
+                .start();
+        channel = InProcessChannelBuilder.forName(name).build();
+    }
+
+    @AfterEach
+    void stop() throws InterruptedException {
+        channel.shutdownNow().awaitTermination(10, TimeUnit.SECONDS);
+        server.shutdownNow().awaitTermination(10, TimeUnit.SECONDS);
+        executor.shutdownNow();
+    }
+
+    @Test
+    void runsHandlerOnBlockingExecutorInContextOfCall() {
+        ProductReply reply = ProductsGrpc.newBlockingStub(channel)
+                .withDeadlineAfter(1, TimeUnit.MINUTES)
+                .get(ProductRequest.Id.newBuilder().setId(1).build());
+
+        assertEquals("blocking", reply.getName());
+        assertFalse(reply.getDescription().isEmpty(), "deadline of the call is not visible");
+    }
+
+    @Test
+    void closesCallWhenHandlerThrows() {
+        long start = System.nanoTime();
+        StatusRuntimeException e = assertThrows(StatusRuntimeException.class,
+                () -> ProductsGrpc.newBlockingStub(channel)
+                        .withDeadlineAfter(10, TimeUnit.SECONDS)
+                        .get(ProductRequest.Id.newBuilder().setId(-1).build()));
+
+        assertEquals(Status.Code.UNKNOWN, e.getStatus().getCode());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5), "the call was not closed");
+    }
+}
@@ -0,0 +1,117 @@
+package orders;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import com.google.protobuf.Empty;
+
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import jwtauth.JwtTokens;
+
+/**
+ * Compares throughput and latency of executor modes under the same mixed load
+ * of in-memory Products.List and database backed Orders.List calls.
+ * Run with -Dorders.loadtest=true, -Dorders.loadtest.clients and
+ * -Dorders.loadtest.seconds tune the load.
+ */
+@EnabledIfSystemProperty(named = "orders.loadtest", matches = "true")
+class ExecutorModeLoadTest {
+    private static final int CLIENTS = Integer.getInteger("orders.loadtest.clients", 64);
+    private static final int SECONDS = Integer.getInteger("orders.loadtest.seconds", 10);
+    private static final int THREADS = Integer.getInteger("orders.executor.threads", 16);
+
+    @Test
+    void compareExecutorModes() throws Exception {
+        // executors are compared under the same load, nothing is shed
+        String limit = System.setProperty("orders.limit.max", "0");
+        try {
+            for (ExecutorMode mode : ExecutorMode.values()) {
+                if (mode == ExecutorMode.VIRTUAL && Runtime.version().feature() < 21) {
+                    System.out.println(mode + ": skipped, requires Java 21");
+                    continue;
+                }
+                App app = new App(0, mode, THREADS);
+                app.start();
+                try {
+                    run(mode, app.getPort(), 2); // warm up
+                    System.out.println(run(mode, app.getPort(), SECONDS));
+                } finally {
+                    app.stop();
+                }
+            }
+        } finally {
+            if (null == limit) {
+                System.clearProperty("orders.limit.max");
+            } else {
+                System.setProperty("orders.limit.max", limit);
+            }
+        }
+    }
+
+    private static String run(ExecutorMode mode, int port, int seconds) throws Exception {
+        ManagedChannel channel = ManagedChannelBuilder.forAddress("localhost", port)
+                .usePlaintext()
+                .intercept(JwtTokens.bearer(JwtTokens.issue(1, 1, TimeUnit.HOURS, "Admin")))
+                .build();
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        try {
+            OrdersGrpc.OrdersBlockingStub orders = OrdersGrpc.newBlockingStub(channel);
+            ProductsGrpc.ProductsBlockingStub products = ProductsGrpc.newBlockingStub(channel);
+            OrderListRequest page = OrderListRequest.newBuilder().setCount(20).build();
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+            List<Future<long[]>> results = new ArrayList<>();
+            for (int c = 0; c < CLIENTS; ++c) {
+                final boolean database = c % 2 == 0;
+                results.add(clients.submit(() -> {
+                    long[] latencies = new long[1024];
+                    int n = 0;
+                    while (System.nanoTime() < deadline) {
+                        long start = System.nanoTime();
+                        if (database) {
+                            orders.list(page);
+                        } else {
+                            products.list(Empty.getDefaultInstance());
+                        }
+                        if (n == latencies.length) {
+                            latencies = Arrays.copyOf(latencies, n * 2);
+                        }
+                        latencies[n++] = System.nanoTime() - start;
+                    }
+                    return Arrays.copyOf(latencies, n);
+                }));
+            }
+
+            long[] all = new long[0];
+            for (Future<long[]> f : results) {
+                long[] l = f.get();
+                int from = all.length;
+                all = Arrays.copyOf(all, from + l.length);
+                System.arraycopy(l, 0, all, from, l.length);
+            }
+            assertTrue(all.length > 0);
+            Arrays.sort(all);
+
+            return String.format("%-7s %8.0f calls/s  p50 %6.2f ms  p99 %6.2f ms",
+                    mode, all.length / (double) seconds, percentile(all, 0.50), percentile(all, 0.99));
+        } finally {
+            clients.shutdownNow();
+            channel.shutdownNow().awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.round(p * sorted.length))] / 1e6;
+    }
+}
@@ -0,0 +1,115 @@
+package orders.compression;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.google.protobuf.Empty;
+
+import io.grpc.Codec;
+import io.grpc.DecompressorRegistry;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.ServerInterceptors;
+import io.grpc.stub.StreamObserver;
+import orders.ProductListReply;
+import orders.ProductReply;
+import orders.ProductsGrpc;
+import orders.metrics.MetricsRegistry;
+
+class CompressionInterceptorTest {
+    private static final int MIN_BYTES = 1024;
+
+    private final CompressionInterceptor interceptor = new CompressionInterceptor()
+            .compress(ProductsGrpc.getListMethod(), MIN_BYTES);
+    private volatile int products;
+    private Server server;
+
+    @BeforeEach
+    void start() throws Exception {
+        ProductsGrpc.ProductsImplBase service = new ProductsGrpc.ProductsImplBase() {
+            @Override
+            public void list(Empty request, StreamObserver<ProductListReply> responseObserver) {
+                ProductListReply.Builder reply = ProductListReply.newBuilder();
+                for (int i = 1; i <= products; ++i) {
+                    reply.addProductList(ProductReply.newBuilder()
+                            .setId(i)
+                            .setName("Product " + i)
+                            .setDescription("Description of product " + i));
+                }
+                responseObserver.onNext(reply.build());
+                responseObserver.onCompleted();
+            }
+        };
+        // the in-process transport does not compress, so a real one is used
+        server = ServerBuilder.forPort(0)
+                .compressorRegistry(interceptor.getCompressorRegistry())
+                .addService(ServerInterceptors.intercept(service, interceptor))
+                .build()
+                .start();
+    }
+
+    @AfterEach
+    void stop() throws InterruptedException {
+        server.shutdownNow().awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void compressesLargeRepliesOnly() throws InterruptedException {
+        ManagedChannel channel = ManagedChannelBuilder.forAddress("localhost", server.getPort())
+                .usePlaintext()
+                .build();
+        try {
+            ProductsGrpc.ProductsBlockingStub stub = ProductsGrpc.newBlockingStub(channel);
+
+            products = 1;
+            assertEquals(1, stub.list(Empty.getDefaultInstance()).getProductListCount());
+            assertEquals(0, interceptor.getCompressor().getMessageCount());
+
+            products = 100;
+            assertEquals(100, stub.list(Empty.getDefaultInstance()).getProductListCount());
+            CountingCompressor compressor = interceptor.getCompressor();
+            assertEquals(1, compressor.getMessageCount());
+            assertTrue(compressor.getInputBytes() > MIN_BYTES);
+            assertTrue(compressor.getOutputBytes() < compressor.getInputBytes() / 2);
+            assertTrue(compressor.getNanos() > 0);
+
+            String scrape = scrape();
+            assertTrue(scrape.contains("grpc_method=\"List\",compressed=\"true\"} 1\n"), scrape);
+            assertTrue(scrape.contains("grpc_method=\"List\",compressed=\"false\"} 1\n"), scrape);
+        } finally {
+            channel.shutdownNow().awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    void doesNotCompressForClientsWithoutGzip() throws InterruptedException {
+        ManagedChannel channel = ManagedChannelBuilder.forAddress("localhost", server.getPort())
+                .usePlaintext()
+                // identity only, not advertised
+                .decompressorRegistry(DecompressorRegistry.emptyInstance().with(Codec.Identity.NONE, false))
+                .build();
+        try {
+            products = 100;
+            assertEquals(100, ProductsGrpc.newBlockingStub(channel).list(Empty.getDefaultInstance())
+                    .getProductListCount());
+            assertEquals(0, interceptor.getCompressor().getMessageCount());
+            assertTrue(scrape().contains("orders_compression_not_accepted_total{grpc_service=\"orders.Products\","
+                    + "grpc_method=\"List\"} 1\n"));
+        } finally {
+            channel.shutdownNow().awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    private String scrape() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.register(interceptor);
+        return registry.scrape();
+    }
+}
@@ -0,0 +1,39 @@
+package orders.hibernate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class QueryStatsTest {
+    @Test
+    void normalizeCollapsesLiteralsAndInLists() {
+        assertEquals("select o1_0.id from orders o1_0 where o1_0.id in (?...) and o1_0.user_id=? and c=?",
+                QueryStats.normalize("select o1_0.id from orders o1_0\n where o1_0.id in (?, ?,?) "
+                        + "and o1_0.user_id=42 and c='it''s'"));
+    }
+
+    @Test
+    void countBindsSkipsQuotedMarks() {
+        assertEquals(2, QueryStats.countBinds("select * from t where a=? and b='?' and c in (?)"));
+    }
+
+    @Test
+    void recordAggregatesByNormalizedStatement() {
+        QueryStats stats = new QueryStats(1, TimeUnit.HOURS);
+        stats.record("select * from orders where id in (?,?)", 10);
+        stats.record("select * from orders where id in(?)", 30);
+        stats.record("select * from products", 20);
+
+        List<QueryStats.Query> slowest = stats.getSlowest(10);
+        assertEquals(2, slowest.size());
+        assertEquals("select * from orders where id in (?...)", slowest.get(0).getSql());
+        assertEquals(2, slowest.get(0).getCount());
+        assertEquals(40, slowest.get(0).getTotalNanos());
+        assertEquals(30, slowest.get(0).getMaxNanos());
+        assertEquals(3, stats.getExecutionCount());
+        assertEquals(0, stats.getSlowExecutionCount());
+    }
+}
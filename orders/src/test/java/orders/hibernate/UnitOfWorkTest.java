@@ -0,0 +1,60 @@
+package orders.hibernate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import io.grpc.Context;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+
+class UnitOfWorkTest {
+    // Never completes in time, H2 checks for cancellation while it runs
+    private static final String SLOW_QUERY = "select count(*) from system_range(1, 100000) a, system_range(1, 100000) b"
+            + " where a.x + b.x = 7";
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    @AfterEach
+    void stop() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void doesNotOpenSessionForCancelledCall() {
+        Context.CancellableContext context = Context.current().withCancellation();
+        context.cancel(null);
+        long skipped = UnitOfWork.getSkippedCount();
+        long openSessions = HibernateUtil.getOpenSessionCount();
+
+        try (UnitOfWork work = new UnitOfWork()) {
+            StatusRuntimeException e = assertThrows(StatusRuntimeException.class,
+                    () -> work.bind(context).run(work::readOnlySession));
+            assertEquals(Status.Code.CANCELLED, e.getStatus().getCode());
+        }
+        assertEquals(skipped + 1, UnitOfWork.getSkippedCount());
+        assertEquals(openSessions, HibernateUtil.getOpenSessionCount());
+    }
+
+    @Test
+    void cancelsStatementWhenDeadlinePasses() {
+        Context.CancellableContext context = Context.current()
+                .withDeadlineAfter(500, TimeUnit.MILLISECONDS, scheduler);
+        long cancelled = UnitOfWork.getCancelledQueryCount();
+
+        long start = System.nanoTime();
+        try (UnitOfWork work = new UnitOfWork()) {
+            assertThrows(RuntimeException.class, () -> work.bind(context).run(
+                    () -> work.readOnlySession().createNativeQuery(SLOW_QUERY, Long.class).getSingleResult()));
+        } finally {
+            context.cancel(null);
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        assertEquals(cancelled + 1, UnitOfWork.getCancelledQueryCount());
+    }
+}
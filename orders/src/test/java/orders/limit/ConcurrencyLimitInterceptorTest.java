@@ -0,0 +1,120 @@
+package orders.limit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.protobuf.Empty;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import orders.ProductListReply;
+import orders.ProductReply;
+import orders.ProductRequest;
+import orders.ProductsGrpc;
+import orders.limit.ConcurrencyLimitInterceptor.Priority;
+
+class ConcurrencyLimitInterceptorTest {
+    private static final int LIMIT = 4;
+
+    // Products.Get stands for a read and Products.List for a write
+    private final ConcurrencyLimitInterceptor interceptor = new ConcurrencyLimitInterceptor(LIMIT, LIMIT, 50)
+            .limit(ProductsGrpc.getGetMethod(), Priority.READ)
+            .limit(ProductsGrpc.getListMethod(), Priority.WRITE);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private Server server;
+    private ManagedChannel channel;
+
+    @BeforeEach
+    void start() throws Exception {
+        ProductsGrpc.ProductsImplBase service = new ProductsGrpc.ProductsImplBase() {
+            @Override
+            public void get(ProductRequest.Id request, StreamObserver<ProductReply> responseObserver) {
+                await();
+                responseObserver.onNext(ProductReply.newBuilder().setId(request.getId()).build());
+                responseObserver.onCompleted();
+            }
+
+            @Override
+            public void list(Empty request, StreamObserver<ProductListReply> responseObserver) {
+                await();
+                responseObserver.onNext(ProductListReply.getDefaultInstance());
+                responseObserver.onCompleted();
+            }
+        };
+        String name = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(name)
+                .executor(executor)
+                .addService(ServerInterceptors.intercept(service, interceptor))
+                .build()
+                .start();
+        channel = InProcessChannelBuilder.forName(name).build();
+    }
+
+    @AfterEach
+    void stop() throws InterruptedException {
+        release.countDown();
+        channel.shutdownNow().awaitTermination(10, TimeUnit.SECONDS);
+        server.shutdownNow().awaitTermination(10, TimeUnit.SECONDS);
+        executor.shutdownNow();
+    }
+
+    private void await() {
+        try {
+            release.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    void rejectsReadsAboveTheirShareAndKeepsRestForWrites() throws Exception {
+        ProductsGrpc.ProductsFutureStub stub = ProductsGrpc.newFutureStub(channel);
+        ProductRequest.Id id = ProductRequest.Id.newBuilder().setId(1).build();
+
+        List<ListenableFuture<?>> admitted = new ArrayList<>();
+        admitted.add(stub.get(id));
+        admitted.add(stub.get(id));
+        while (interceptor.getInFlight() < 2) {
+            Thread.sleep(10);
+        }
+
+        ExecutionException rejected = assertThrows(ExecutionException.class,
+                () -> stub.get(id).get(10, TimeUnit.SECONDS));
+        assertEquals(Status.Code.RESOURCE_EXHAUSTED, Status.fromThrowable(rejected.getCause()).getCode());
+        assertEquals(1, interceptor.getRejectedCount(Priority.READ));
+
+        admitted.add(stub.list(Empty.getDefaultInstance()));
+        admitted.add(stub.list(Empty.getDefaultInstance()));
+        while (interceptor.getInFlight() < LIMIT) {
+            Thread.sleep(10);
+        }
+        assertThrows(ExecutionException.class, () -> stub.list(Empty.getDefaultInstance()).get(10, TimeUnit.SECONDS));
+        assertEquals(1, interceptor.getRejectedCount(Priority.WRITE));
+
+        release.countDown();
+        for (ListenableFuture<?> f : admitted) {
+            f.get(10, TimeUnit.SECONDS);
+        }
+        while (interceptor.getInFlight() > 0) {
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package orders.limit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.google.protobuf.Empty;
+
+import io.grpc.Context;
+import io.grpc.Contexts;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.Server;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import jwtauth.AuthInfo;
+import jwtauth.Constant;
+import orders.ProductListReply;
+import orders.ProductReply;
+import orders.ProductRequest;
+import orders.ProductsGrpc;
+
+class RateLimitInterceptorTest {
+    private final RateLimitInterceptor interceptor = RateLimitInterceptor.parse(
+            "Admin=unlimited; *=1/2; Reader=1/3; *:orders.Products/List=unlimited");
+    private volatile AuthInfo authInfo;
+    private Server server;
+    private ManagedChannel channel;
+
+    @BeforeEach
+    void start() throws Exception {
+        ProductsGrpc.ProductsImplBase service = new ProductsGrpc.ProductsImplBase() {
+            @Override
+            public void get(ProductRequest.Id request, StreamObserver<ProductReply> responseObserver) {
+                responseObserver.onNext(ProductReply.newBuilder().setId(request.getId()).build());
+                responseObserver.onCompleted();
+            }
+
+            @Override
+            public void list(Empty request, StreamObserver<ProductListReply> responseObserver) {
+                responseObserver.onNext(ProductListReply.getDefaultInstance());
+                responseObserver.onCompleted();
+            }
+        };
+        ServerInterceptor auth = new ServerInterceptor() {
+            @Override
+            public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call,
+                    Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+                return Contexts.interceptCall(Context.current().withValue(Constant.CLIENT_CONTEXT_KEY, authInfo),
+                        call, headers, next);
+            }
+        };
+        String name = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(name)
+                .addService(ServerInterceptors.intercept(service, interceptor, auth))
+                .build()
+                .start();
+        channel = InProcessChannelBuilder.forName(name).build();
+    }
+
+    @AfterEach
+    void stop() throws InterruptedException {
+        channel.shutdownNow().awaitTermination(10, TimeUnit.SECONDS);
+        server.shutdownNow().awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void throttlesClientsOverLimitsOfTheirRoles() {
+        ProductsGrpc.ProductsBlockingStub stub = ProductsGrpc.newBlockingStub(channel);
+        ProductRequest.Id id = ProductRequest.Id.newBuilder().setId(1).build();
+
+        authInfo = new AuthInfo(1, new String[] { "1/GetOrder" });
+        stub.get(id);
+        stub.get(id);
+        StatusRuntimeException e = assertThrows(StatusRuntimeException.class, () -> stub.get(id));
+        assertEquals(Status.Code.RESOURCE_EXHAUSTED, e.getStatus().getCode());
+        long retryAfter = Long.parseLong(e.getTrailers().get(RateLimitInterceptor.RETRY_PUSHBACK_KEY));
+        assertTrue(retryAfter > 0 && retryAfter <= 1000, "retry after " + retryAfter);
+        // the limit is per method
+        for (int i = 0; i < 5; ++i) {
+            stub.list(Empty.getDefaultInstance());
+        }
+
+        // the most generous limit of the roles applies
+        authInfo = new AuthInfo(2, new String[] { "GetOrder", "Reader" });
+        for (int i = 0; i < 3; ++i) {
+            stub.get(id);
+        }
+        assertThrows(StatusRuntimeException.class, () -> stub.get(id));
+
+        authInfo = new AuthInfo(3, new String[] { "Admin", "Reader" });
+        for (int i = 0; i < 5; ++i) {
+            stub.get(id);
+        }
+        assertEquals(2, interceptor.getThrottledCount());
+    }
+}
@@ -0,0 +1,57 @@
+package orders.limit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class RateLimiterTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    void allowsBurstThenRate() {
+        RateLimiter limiter = new RateLimiter(0);
+        RateLimit limit = RateLimit.parse("10/5");
+        long now = SECOND;
+
+        for (int i = 0; i < 5; ++i) {
+            assertEquals(0, limiter.tryAcquire(1, limit, now));
+        }
+        long wait = limiter.tryAcquire(1, limit, now);
+        assertEquals(SECOND / 10, wait);
+        // other keys have their own buckets
+        assertEquals(0, limiter.tryAcquire(2, limit, now));
+
+        assertEquals(0, limiter.tryAcquire(1, limit, now + wait));
+        assertTrue(limiter.tryAcquire(1, limit, now + wait) > 0);
+    }
+
+    @Test
+    void evictsFullBuckets() {
+        RateLimiter limiter = new RateLimiter(0);
+        RateLimit limit = RateLimit.parse("10/5");
+        limiter.tryAcquire(1, limit, SECOND);
+        for (int i = 0; i < 5; ++i) {
+            limiter.tryAcquire(2, limit, SECOND);
+        }
+        assertEquals(2, limiter.getBucketCount());
+
+        // both buckets are full again long before the sweep
+        long sweep = SECOND + RateLimiter.SWEEP_INTERVAL_NANOS;
+        limiter.tryAcquire(3, limit, sweep);
+        assertEquals(2, limiter.getEvictedCount());
+        assertEquals(1, limiter.getBucketCount());
+    }
+
+    @Test
+    void parsesLimits() {
+        RateLimit limit = RateLimit.parse(" 2.5 ");
+        assertEquals(2.5, limit.perSecond);
+        assertEquals(3, limit.burst);
+        assertSame(RateLimit.UNLIMITED, RateLimit.parse("unlimited"));
+        assertTrue(RateLimit.UNLIMITED.exceeds(RateLimit.parse("100/200")));
+        assertThrows(IllegalArgumentException.class, () -> RateLimit.parse("0"));
+        assertThrows(IllegalArgumentException.class, () -> RateLimit.parse("ten"));
+    }
+}
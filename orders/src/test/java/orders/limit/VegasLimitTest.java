@@ -0,0 +1,39 @@
+package orders.limit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class VegasLimitTest {
+    private static final long MILLIS = 1_000_000;
+
+    @Test
+    void growsWhileLatencyStaysLowAndShrinksWhenCallsQueue() {
+        VegasLimit limit = new VegasLimit(20, 1, 200);
+        limit.sample(10 * MILLIS, 20, false);
+        for (int i = 0; i < 10; ++i) {
+            limit.sample(10 * MILLIS, limit.getLimit(), false);
+        }
+        int grown = limit.getLimit();
+        assertTrue(grown > 20, "limit " + grown);
+
+        // calls wait twice as long as they run, most of them are queued
+        for (int i = 0; i < 10; ++i) {
+            limit.sample(30 * MILLIS, limit.getLimit(), false);
+        }
+        assertTrue(limit.getLimit() < grown, "limit " + limit.getLimit());
+    }
+
+    @Test
+    void keepsLimitWhenNotReachedAndShrinksOnDrops() {
+        VegasLimit limit = new VegasLimit(20, 1, 200);
+        limit.sample(10 * MILLIS, 20, false);
+        limit.sample(100 * MILLIS, 2, false);
+        assertEquals(20, limit.getLimit());
+
+        for (int i = 0; i < 5; ++i) {
+            limit.sample(10 * MILLIS, 2, true);
+        }
+        assertTrue(limit.getLimit() < 20, "limit " + limit.getLimit());
+    }
+}
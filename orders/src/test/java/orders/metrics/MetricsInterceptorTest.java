@@ -0,0 +1,70 @@
+package orders.metrics;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import orders.ProductReply;
+import orders.ProductRequest;
+import orders.ProductsGrpc;
+
+class MetricsInterceptorTest {
+    private final MetricsInterceptor interceptor = new MetricsInterceptor();
+    private Server server;
+    private ManagedChannel channel;
+
+    @BeforeEach
+    void start() throws Exception {
+        ProductsGrpc.ProductsImplBase service = new ProductsGrpc.ProductsImplBase() {
+            @Override
+            public void get(ProductRequest.Id request, StreamObserver<ProductReply> responseObserver) {
+                if (request.getId() < 0) {
+                    throw new IllegalArgumentException("negative id");
+                }
+                responseObserver.onNext(ProductReply.newBuilder().setId(request.getId()).build());
+                responseObserver.onCompleted();
+            }
+        };
+        String name = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(name)
+                .addService(ServerInterceptors.intercept(service, interceptor))
+                .build()
+                .start();
+        channel = InProcessChannelBuilder.forName(name).build();
+    }
+
+    @AfterEach
+    void stop() throws InterruptedException {
+        channel.shutdownNow().awaitTermination(10, TimeUnit.SECONDS);
+        server.shutdownNow().awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void countsCallsOfHandlersThatThrow() throws InterruptedException {
+        ProductsGrpc.ProductsBlockingStub stub = ProductsGrpc.newBlockingStub(channel);
+        stub.get(ProductRequest.Id.newBuilder().setId(1).build());
+        assertThrows(StatusRuntimeException.class, () -> stub.get(ProductRequest.Id.newBuilder().setId(-1).build()));
+
+        MethodMetrics metrics = interceptor.getMethods().iterator().next();
+        // the server completes a failed call after the client sees its status
+        for (int i = 0; i < 100 && metrics.getInFlight() > 0; ++i) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, metrics.getStarted());
+        assertEquals(0, metrics.getInFlight());
+        assertEquals(1, metrics.getHandled(Status.Code.OK));
+        assertEquals(1, metrics.getHandled(Status.Code.UNKNOWN));
+    }
+}
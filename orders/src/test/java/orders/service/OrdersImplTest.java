@@ -0,0 +1,580 @@
+package orders.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.hibernate.Session;
+import org.hibernate.cache.spi.access.EntityDataAccess;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.google.protobuf.BoolValue;
+import com.google.protobuf.FieldMask;
+import com.google.protobuf.Int32Value;
+import com.google.protobuf.StringValue;
+
+import io.grpc.Context;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import jwtauth.AuthInfo;
+import jwtauth.Constant;
+import orders.AddressReply;
+import orders.OrderBatchReply;
+import orders.OrderBatchRequest;
+import orders.OrderGetManyReply;
+import orders.OrderGetManyRequest;
+import orders.OrderListReply;
+import orders.OrderListReplyV2;
+import orders.OrderListRequest;
+import orders.OrderPatchReply;
+import orders.OrderPatchRequest;
+import orders.OrderReply;
+import orders.OrderReplyV2;
+import orders.OrderRequest;
+import orders.ProductReply;
+import orders.hibernate.HibernateUtil;
+import orders.hibernate.QueryStats;
+import orders.hibernate.UnitOfWork;
+import orders.hibernate.model.Address;
+import orders.hibernate.model.Order;
+import orders.hibernate.model.Product;
+
+class OrdersImplTest {
+    private static final int USER = 1001;
+    private static final int ORDERS = 150;
+    private static final int PAGE = 100;
+    /* Creates orders, for users other than USER to keep its orders */
+    private static final int CREATOR = 1002;
+    private static final AuthInfo OWNER = new AuthInfo(USER, new String[] { "GetOrder", "UpdateOrder" });
+
+    private static long lastOrderId;
+
+    @BeforeAll
+    static void seed() {
+        try (Session session = HibernateUtil.getSession()) {
+            session.beginTransaction();
+            for (int i = 0; i < ORDERS; ++i) {
+                Address address = new Address();
+                address.setStreet("Street " + i);
+                address.setZipCode("12345");
+                address.setCountryCode("US");
+
+                Set<Product> products = new HashSet<>();
+                for (int p = 0; p < 3; ++p) {
+                    products.add(session.getReference(Product.class, 1 + (i + p) % 5));
+                }
+
+                Order order = new Order();
+                order.setUser(USER);
+                order.setCreatedBy(USER);
+                order.setCreatedAt(Instant.now());
+                order.setCustomer("Customer " + i);
+                order.setAddress(address);
+                order.setProducts(products);
+                address.setOrder(order);
+                session.persist(order);
+                lastOrderId = order.getId();
+            }
+            session.getTransaction().commit();
+        }
+    }
+
+    @Test
+    void listLoadsPageWithConstantNumberOfStatements() {
+        OrderListRequest req = OrderListRequest.newBuilder()
+                .setCount(PAGE)
+                .setIncludeTotal(BoolValue.of(false))
+                .build();
+
+        Statistics stats = startCountingStatements();
+        OrderListReply reply = call((impl, observer) -> impl.list(req, observer));
+
+        // page ids, then orders with addresses and products
+        assertEquals(2, stats.getPrepareStatementCount());
+        assertEquals(PAGE, reply.getOrdersListCount());
+        reply.getOrdersListList().forEach(o -> {
+            assertEquals(3, o.getData().getOrderProductListCount());
+            assertFalse(o.getData().getAddress().getStreet().isEmpty());
+        });
+
+        OrderListRequest next = OrderListRequest.newBuilder()
+                .setCount(PAGE)
+                .setPageToken(reply.getNextPageToken())
+                .setIncludeTotal(BoolValue.of(true))
+                .build();
+
+        stats.clear();
+        OrderListReply nextReply = call((impl, observer) -> impl.list(next, observer));
+
+        assertEquals(3, stats.getPrepareStatementCount());
+        assertEquals(ORDERS - PAGE, nextReply.getOrdersListCount());
+        assertEquals(ORDERS, nextReply.getTotal());
+        assertEquals(reply.getOrdersList(PAGE - 1).getData().getId() - 1,
+                nextReply.getOrdersList(0).getData().getId());
+    }
+
+    @Test
+    void listStreamSendsOrdersWhileClientIsReady() {
+        AuthInfo authInfo = new AuthInfo(USER, new String[] { "GetOrder" });
+        StreamReply<OrderReply> reply = new StreamReply<>();
+        try (UnitOfWork work = new UnitOfWork()) {
+            Context ctx = work.bind(Context.current().withValue(Constant.CLIENT_CONTEXT_KEY, authInfo));
+            ctx.run(() -> new OrdersImpl().listStream(OrderListRequest.getDefaultInstance(), reply));
+            assertTrue(reply.values.isEmpty());
+
+            // more orders than a single fetch, read by a client slower than the server
+            int rounds = 0;
+            while (!reply.completed) {
+                ctx.run(() -> reply.read(40));
+                assertNull(reply.error);
+                ++rounds;
+            }
+            assertEquals((ORDERS + 39) / 40, rounds);
+        }
+
+        assertEquals(ORDERS, reply.values.size());
+        assertEquals(lastOrderId, reply.values.get(0).getData().getId());
+        for (int i = 1; i < ORDERS; ++i) {
+            assertTrue(reply.values.get(i).getData().getId() < reply.values.get(i - 1).getData().getId());
+        }
+        assertEquals(3, reply.values.get(ORDERS - 1).getData().getOrderProductListCount());
+    }
+
+    @Test
+    void listStreamClosesCursorWhenCancelled() {
+        AuthInfo authInfo = new AuthInfo(USER, new String[] { "GetOrder" });
+        StreamReply<OrderReply> reply = new StreamReply<>();
+        long openSessions = HibernateUtil.getOpenSessionCount();
+        try (UnitOfWork work = new UnitOfWork()) {
+            Context ctx = work.bind(Context.current().withValue(Constant.CLIENT_CONTEXT_KEY, authInfo));
+            ctx.run(() -> new OrdersImpl().listStream(OrderListRequest.getDefaultInstance(), reply));
+            ctx.run(() -> reply.read(10));
+            assertEquals(10, reply.values.size());
+            assertTrue(work.session().getTransaction().isActive());
+
+            reply.cancel();
+            assertFalse(work.session().getTransaction().isActive());
+
+            // nothing is read after the cancellation
+            ctx.run(() -> reply.read(10));
+            assertEquals(10, reply.values.size());
+            assertFalse(reply.completed);
+            assertNull(reply.error);
+        }
+        assertEquals(openSessions, HibernateUtil.getOpenSessionCount());
+    }
+
+    @Test
+    void getLoadsOrderFromSecondLevelCache() {
+        OrderRequest.Id req = OrderRequest.Id.newBuilder().setId(lastOrderId).build();
+        HibernateUtil.getCache().evictAllRegions();
+
+        Statistics stats = startCountingStatements();
+        OrderReply reply = call((impl, observer) -> impl.get(req, observer));
+
+        // order with address, then products of the order
+        assertEquals(2, stats.getPrepareStatementCount());
+        assertEquals(lastOrderId, reply.getData().getId());
+        assertEquals(3, reply.getData().getOrderProductListCount());
+
+        stats.clear();
+        OrderReply cached = call((impl, observer) -> impl.get(req, observer));
+
+        assertEquals(0, stats.getPrepareStatementCount());
+        assertTrue(stats.getSecondLevelCacheHitCount() > 0);
+        assertEquals(reply, cached);
+    }
+
+    @Test
+    void replyV2HasSameOrderAsReply() {
+        OrderRequest.Id req = OrderRequest.Id.newBuilder().setId(lastOrderId).build();
+        OrderReply reply = call((impl, observer) -> impl.get(req, observer));
+        OrderReplyV2 v2 = call((impl, observer) -> impl.getV2(req, observer));
+
+        OrderRequest data = reply.getData();
+        assertEquals(data.getId(), v2.getId());
+        assertEquals(data.getUser().getValue(), v2.getUser());
+        assertEquals(data.getCustomer(), v2.getCustomer());
+        assertEquals(data.hasComment(), v2.hasComment());
+        assertEquals(reply.hasUpdatedAt(), v2.hasUpdatedAt());
+        assertEquals(data.getAddress(), v2.getAddress());
+        assertEquals(data.getOrderProductListList(), v2.getProductsList());
+        assertEquals(Instant.parse(reply.getCreatedAt()).toEpochMilli(), v2.getCreatedAt());
+        assertEquals(reply.getCreatedBy(), v2.getCreatedBy());
+        assertEquals(reply.getVersion(), v2.getVersion());
+        assertTrue(v2.getSerializedSize() < reply.getSerializedSize());
+
+        OrderListRequest list = OrderListRequest.newBuilder().setCount(PAGE).build();
+        OrderListReply page = call((impl, observer) -> impl.list(list, observer));
+        OrderListReplyV2 pageV2 = call((impl, observer) -> impl.listV2(list, observer));
+        assertEquals(page.getOrdersListCount(), pageV2.getOrdersCount());
+        assertEquals(page.getTotal(), pageV2.getTotal());
+        assertEquals(page.getNextPageToken(), pageV2.getNextPageToken());
+    }
+
+    @Test
+    void getManyLoadsOrdersByChunksInRequestOrder() {
+        OrderGetManyRequest.Builder req = OrderGetManyRequest.newBuilder()
+                .addIds(lastOrderId - 1)
+                .addIds(lastOrderId)
+                .addIds(lastOrderId - 1);
+        // more ids than a single IN list takes
+        for (long id = 1; id <= OrdersImpl.IN_CHUNK_SIZE; ++id) {
+            req.addIds(-id);
+        }
+
+        Statistics stats = startCountingStatements();
+        OrderGetManyReply reply = call((impl, observer) -> impl.getMany(req.build(), observer));
+
+        assertEquals(2, stats.getPrepareStatementCount());
+        assertEquals(2, reply.getOrdersCount());
+        assertEquals(lastOrderId - 1, reply.getOrders(0).getData().getId());
+        assertEquals(lastOrderId, reply.getOrders(1).getData().getId());
+        assertEquals(3, reply.getOrders(1).getData().getOrderProductListCount());
+        assertEquals(OrdersImpl.IN_CHUNK_SIZE, reply.getMissingIdsCount());
+        assertEquals(-1, reply.getMissingIds(0));
+    }
+
+    @Test
+    void createBatchReportsInvalidOrdersAndInsertsOthersInBatches() {
+        AuthInfo creator = new AuthInfo(CREATOR, new String[] { "CreateOrder", "GetOrder" });
+        AddressReply address = AddressReply.newBuilder().setStreet("Street").setZipCode("12345").setCountryCode("US")
+                .build();
+        OrderBatchRequest req = OrderBatchRequest.newBuilder()
+                .addOrders(OrderRequest.newBuilder().setCustomer("Batch 1").setAddress(address)
+                        .addOrderProductList(ProductReply.newBuilder().setId(1))
+                        .addOrderProductList(ProductReply.newBuilder().setId(2)))
+                .addOrders(OrderRequest.newBuilder().setCustomer("Unauthorized").setAddress(address)
+                        .setUser(Int32Value.of(CREATOR + 1)))
+                .addOrders(OrderRequest.newBuilder().setCustomer("Missing product").setAddress(address)
+                        .addOrderProductList(ProductReply.newBuilder().setId(1))
+                        .addOrderProductList(ProductReply.newBuilder().setId(999_999)))
+                .addOrders(OrderRequest.newBuilder().setCustomer("No address"))
+                .addOrders(OrderRequest.newBuilder().setCustomer("Batch 2").setAddress(address)
+                        .setUser(Int32Value.of(CREATOR))
+                        .addOrderProductList(ProductReply.newBuilder().setId(3)))
+                .build();
+
+        QueryStats queries = HibernateUtil.getQueryStats();
+        queries.reset();
+        OrderBatchReply reply = call(creator, (impl, observer) -> impl.createBatch(req, observer));
+
+        assertEquals(5, reply.getResultsCount());
+        assertEquals(0, reply.getResults(0).getCode());
+        assertEquals("Batch 1", reply.getResults(0).getOrder().getData().getCustomer());
+        assertEquals(CREATOR, reply.getResults(0).getOrder().getData().getUser().getValue());
+        assertEquals(2, reply.getResults(0).getOrder().getData().getOrderProductListCount());
+        assertEquals(Status.Code.PERMISSION_DENIED.value(), reply.getResults(1).getCode());
+        assertFalse(reply.getResults(1).hasOrder());
+        assertEquals(Status.Code.NOT_FOUND.value(), reply.getResults(2).getCode());
+        assertTrue(reply.getResults(2).getDescription().contains("999999"));
+        assertEquals(Status.Code.INVALID_ARGUMENT.value(), reply.getResults(3).getCode());
+        assertEquals(0, reply.getResults(4).getCode());
+        assertEquals("Batch 2", reply.getResults(4).getOrder().getData().getCustomer());
+
+        // addresses, orders, their products and the changes for watchers,
+        // one batch each for both orders
+        assertEquals(4, queries.getMostExpensive(100).stream()
+                .filter(q -> q.getSql().startsWith("insert"))
+                .mapToLong(QueryStats.Query::getCount)
+                .sum());
+
+        OrderRequest.Id created = OrderRequest.Id.newBuilder()
+                .setId(reply.getResults(4).getOrder().getData().getId())
+                .build();
+        OrderReply stored = call(creator, (impl, observer) -> impl.get(created, observer));
+        assertEquals("Batch 2", stored.getData().getCustomer());
+
+        OrderBatchRequest.Builder tooMany = OrderBatchRequest.newBuilder();
+        for (int i = 0; i <= OrdersImpl.CREATE_BATCH_MAX_ORDERS; ++i) {
+            tooMany.addOrders(OrderRequest.getDefaultInstance());
+        }
+        Throwable invalid = callForError(creator, (OrdersImpl impl, StreamObserver<OrderBatchReply> observer) ->
+                impl.createBatch(tooMany.build(), observer));
+        assertEquals(Status.Code.INVALID_ARGUMENT, Status.fromThrowable(invalid).getCode());
+    }
+
+    @Test
+    void patchUpdatesMaskedColumnsOnly() {
+        long id = lastOrderId - 1;
+        OrderRequest.Id req = OrderRequest.Id.newBuilder().setId(id).build();
+        OrderRequest.Id otherReq = OrderRequest.Id.newBuilder().setId(lastOrderId - 2).build();
+        OrderReply original = call((impl, observer) -> impl.get(req, observer));
+        long version = original.getVersion();
+        OrderReply other = call((impl, observer) -> impl.get(otherReq, observer));
+
+        OrderPatchRequest comment = OrderPatchRequest.newBuilder()
+                .setOrder(OrderRequest.newBuilder().setId(id).setComment(StringValue.of("Patched")))
+                .setUpdateMask(FieldMask.newBuilder().addPaths("comment"))
+                .setVersion(version)
+                .build();
+        Statistics stats = startCountingStatements();
+        QueryStats queries = HibernateUtil.getQueryStats();
+        queries.reset();
+        OrderPatchReply patched = call((impl, observer) -> impl.patch(comment, observer));
+
+        // the update, the re-read of the user and address of the order and
+        // the change for watchers; the order itself is not loaded. Change ids
+        // come from a pooled sequence, only some patches call it
+        assertEquals(0, stats.getEntityLoadCount());
+        assertEquals(3, queries.getMostExpensive(100).stream()
+                .filter(q -> !q.getSql().contains("next value for"))
+                .mapToLong(QueryStats.Query::getCount)
+                .sum());
+        assertEquals(version + 1, patched.getVersion());
+
+        // other orders stay in the second-level cache
+        stats.clear();
+        OrderReply stillCached = call((impl, observer) -> impl.get(otherReq, observer));
+        assertEquals(other, stillCached);
+        assertEquals(0, stats.getPrepareStatementCount());
+
+        OrderReply reply = call((impl, observer) -> impl.get(req, observer));
+        assertEquals("Patched", reply.getData().getComment().getValue());
+        assertEquals("Customer " + (ORDERS - 2), reply.getData().getCustomer());
+        assertEquals(version + 1, reply.getVersion());
+
+        // the stale version is rejected
+        Throwable conflict = callForError((OrdersImpl impl, StreamObserver<OrderPatchReply> observer) ->
+                impl.patch(comment, observer));
+        assertEquals(Status.Code.ABORTED, Status.fromThrowable(conflict).getCode());
+
+        OrderPatchRequest products = OrderPatchRequest.newBuilder()
+                .setOrder(OrderRequest.newBuilder().setId(id)
+                        .addOrderProductList(ProductReply.newBuilder().setId(1))
+                        .addOrderProductList(ProductReply.newBuilder().setId(2)))
+                .setUpdateMask(FieldMask.newBuilder().addPaths("orderProductList"))
+                .setVersion(version + 1)
+                .build();
+        OrderPatchReply relinked = call((impl, observer) -> impl.patch(products, observer));
+        assertEquals(version + 2, relinked.getVersion());
+
+        reply = call((impl, observer) -> impl.get(req, observer));
+        assertEquals(Set.of(1, 2), reply.getData().getOrderProductListList().stream()
+                .map(ProductReply::getId)
+                .collect(Collectors.toSet()));
+
+        OrderPatchRequest unknown = comment.toBuilder()
+                .setUpdateMask(FieldMask.newBuilder().addPaths("createdBy"))
+                .build();
+        Throwable invalid = callForError((OrdersImpl impl, StreamObserver<OrderPatchReply> observer) ->
+                impl.patch(unknown, observer));
+        assertEquals(Status.Code.INVALID_ARGUMENT, Status.fromThrowable(invalid).getCode());
+    }
+
+    @Test
+    void patchMovingOrderRequiresDeleteOnOwner() {
+        int other = USER + 10;
+        long id = lastOrderId - 3;
+        OrderRequest.Id req = OrderRequest.Id.newBuilder().setId(id).build();
+        OrderReply original = call((impl, observer) -> impl.get(req, observer));
+        long version = original.getVersion();
+
+        OrderPatchRequest move = OrderPatchRequest.newBuilder()
+                .setOrder(OrderRequest.newBuilder().setId(id).setUser(Int32Value.of(other)))
+                .setUpdateMask(FieldMask.newBuilder().addPaths("user"))
+                .setVersion(version)
+                .build();
+        AuthInfo mover = new AuthInfo(USER, new String[] { "GetOrder", "UpdateOrder", other + "/UpdateOrder",
+                other + "/CreateOrder" });
+        Throwable denied = callForError(mover, (OrdersImpl impl, StreamObserver<OrderPatchReply> observer) ->
+                impl.patch(move, observer));
+        assertEquals(Status.Code.PERMISSION_DENIED, Status.fromThrowable(denied).getCode());
+
+        OrderPatchRequest noUser = move.toBuilder()
+                .setOrder(OrderRequest.newBuilder().setId(id))
+                .build();
+        Throwable invalid = callForError(mover, (OrdersImpl impl, StreamObserver<OrderPatchReply> observer) ->
+                impl.patch(noUser, observer));
+        assertEquals(Status.Code.INVALID_ARGUMENT, Status.fromThrowable(invalid).getCode());
+
+        // the order is not changed
+        OrderReply unchanged = call((impl, observer) -> impl.get(req, observer));
+        assertEquals(version, unchanged.getVersion());
+    }
+
+    @Test
+    void patchKeepsOrdersReadBeforeItOutOfCache() {
+        long id = lastOrderId - 4;
+        OrderRequest.Id req = OrderRequest.Id.newBuilder().setId(id).build();
+        OrderReply original = call((impl, observer) -> impl.get(req, observer));
+        long version = original.getVersion();
+
+        try (Session reader = HibernateUtil.getSession()) {
+            // a Get that has read the order before the patch commits, the way
+            // it puts the order into the cache after reading it
+            SessionImplementor s = reader.unwrap(SessionImplementor.class);
+            EntityPersister persister = s.getFactory().getRuntimeMetamodels().getMappingMetamodel()
+                    .getEntityDescriptor(Order.class);
+            EntityDataAccess access = persister.getCacheAccessStrategy();
+            Object key = access.generateCacheKey(id, persister, s.getFactory(), s.getTenantIdentifier());
+            Object stale = access.get(s, key);
+            assertNotNull(stale);
+
+            OrderPatchRequest comment = OrderPatchRequest.newBuilder()
+                    .setOrder(OrderRequest.newBuilder().setId(id).setComment(StringValue.of("Raced")))
+                    .setUpdateMask(FieldMask.newBuilder().addPaths("comment"))
+                    .setVersion(version)
+                    .build();
+            OrderPatchReply patched = call((impl, observer) -> impl.patch(comment, observer));
+            assertEquals(version + 1, patched.getVersion());
+
+            assertFalse(access.putFromLoad(s, key, stale, version));
+        }
+
+        OrderReply reply = call((impl, observer) -> impl.get(req, observer));
+        assertEquals("Raced", reply.getData().getComment().getValue());
+        assertEquals(version + 1, reply.getVersion());
+    }
+
+    private static Statistics startCountingStatements() {
+        Statistics stats = HibernateUtil.getStatistics();
+        stats.setStatisticsEnabled(true);
+        stats.clear();
+        return stats;
+    }
+
+    private interface Call<T> {
+        void invoke(OrdersImpl impl, StreamObserver<T> observer);
+    }
+
+    private static <T> T call(Call<T> call) {
+        return call(OWNER, call);
+    }
+
+    private static <T> T call(AuthInfo authInfo, Call<T> call) {
+        Reply<T> reply = invoke(authInfo, call);
+        if (null != reply.error) {
+            fail(reply.error);
+        }
+        assertTrue(reply.completed);
+        return reply.value;
+    }
+
+    private static <T> Throwable callForError(Call<T> call) {
+        return callForError(OWNER, call);
+    }
+
+    private static <T> Throwable callForError(AuthInfo authInfo, Call<T> call) {
+        Reply<T> reply = invoke(authInfo, call);
+        assertNotNull(reply.error);
+        return reply.error;
+    }
+
+    private static <T> Reply<T> invoke(AuthInfo authInfo, Call<T> call) {
+        Reply<T> reply = new Reply<>();
+        long openSessions = HibernateUtil.getOpenSessionCount();
+        try (UnitOfWork work = new UnitOfWork()) {
+            work.bind(Context.current().withValue(Constant.CLIENT_CONTEXT_KEY, authInfo))
+                    .run(() -> call.invoke(new OrdersImpl(), reply));
+        }
+        assertEquals(openSessions, HibernateUtil.getOpenSessionCount());
+        return reply;
+    }
+
+    /**
+     * Stream of a call the client reads at its own pace, the call is ready
+     * while the client has requested more messages than it received.
+     */
+    private static final class StreamReply<T> extends ServerCallStreamObserver<T> {
+        final List<T> values = new ArrayList<>();
+        Throwable error;
+        boolean completed;
+        private int requested;
+        private Runnable onReady;
+        private Runnable onCancel;
+
+        void read(int count) {
+            requested += count;
+            onReady.run();
+        }
+
+        void cancel() {
+            onCancel.run();
+        }
+
+        @Override
+        public boolean isReady() {
+            return requested > 0;
+        }
+
+        @Override
+        public void onNext(T value) {
+            assertTrue(requested > 0, "Message sent while the client is not ready");
+            --requested;
+            values.add(value);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+        }
+
+        @Override
+        public void onCompleted() {
+            completed = true;
+        }
+
+        @Override
+        public void setOnReadyHandler(Runnable onReadyHandler) {
+            onReady = onReadyHandler;
+        }
+
+        @Override
+        public void setOnCancelHandler(Runnable onCancelHandler) {
+            onCancel = onCancelHandler;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public void setCompression(String compression) {
+        }
+
+        @Override
+        public void disableAutoInboundFlowControl() {
+        }
+
+        @Override
+        public void request(int count) {
+        }
+
+        @Override
+        public void setMessageCompression(boolean enable) {
+        }
+    }
+
+    private static final class Reply<T> implements StreamObserver<T> {
+        T value;
+        Throwable error;
+        boolean completed;
+
+        @Override
+        public void onNext(T value) {
+            this.value = value;
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+        }
+
+        @Override
+        public void onCompleted() {
+            completed = true;
+        }
+    }
+}
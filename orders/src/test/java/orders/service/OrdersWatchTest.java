@@ -0,0 +1,324 @@
+package orders.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.Session;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.google.protobuf.Int32Value;
+import com.google.protobuf.StringValue;
+
+import io.grpc.Context;
+import io.grpc.Contexts;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.Server;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import jakarta.transaction.Synchronization;
+import jwtauth.AuthInfo;
+import jwtauth.Constant;
+import orders.AddressReply;
+import orders.OrderEvent;
+import orders.OrderReply;
+import orders.OrderRequest;
+import orders.OrderWatchRequest;
+import orders.OrdersGrpc;
+import orders.ProductReply;
+import orders.hibernate.HibernateUtil;
+import orders.hibernate.UnitOfWorkInterceptor;
+
+class OrdersWatchTest {
+    private static final int USER = 2001;
+    /* User orders are moved to, watchers may not get its orders */
+    private static final int OTHER = 2002;
+    private static final int CAPACITY = 4;
+
+    private OrderEventFeed feed;
+    private Server server;
+    private ManagedChannel channel;
+
+    @BeforeEach
+    void start() throws Exception {
+        feed = new OrderEventFeed(CAPACITY);
+        feed.start(24, TimeUnit.HOURS);
+        String name = InProcessServerBuilder.generateName();
+        ServerInterceptor auth = new ServerInterceptor() {
+            @Override
+            public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call,
+                    Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+                AuthInfo authInfo = new AuthInfo(USER, new String[] { "GetOrder", "CreateOrder", "UpdateOrder",
+                        "DeleteOrder", OTHER + "/CreateOrder", OTHER + "/UpdateOrder" });
+                return Contexts.interceptCall(Context.current().withValue(Constant.CLIENT_CONTEXT_KEY, authInfo),
+                        call, headers, next);
+            }
+        };
+        server = InProcessServerBuilder.forName(name)
+                .addService(ServerInterceptors.intercept(new OrdersImpl(feed), new UnitOfWorkInterceptor(), auth))
+                .build()
+                .start();
+        channel = InProcessChannelBuilder.forName(name).build();
+    }
+
+    @AfterEach
+    void stop() throws InterruptedException {
+        feed.close();
+        channel.shutdownNow().awaitTermination(10, TimeUnit.SECONDS);
+        server.shutdownNow().awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void streamsCommittedChangesAndResumesAfterSequence() throws InterruptedException {
+        Watcher watcher = watch(OrderWatchRequest.getDefaultInstance(), Integer.MAX_VALUE);
+        OrdersGrpc.OrdersBlockingStub orders = OrdersGrpc.newBlockingStub(channel);
+
+        OrderReply created = orders.create(newOrder());
+        OrderEvent event = watcher.next();
+        assertEquals(OrderEvent.Type.CREATED, event.getType());
+        assertEquals(created, event.getOrder());
+
+        OrderReply updated = orders.update(created.getData().toBuilder().setComment(StringValue.of("Updated")).build());
+        OrderEvent update = watcher.next();
+        assertEquals(OrderEvent.Type.UPDATED, update.getType());
+        assertEquals(updated.getVersion(), update.getVersion());
+        assertTrue(update.getSequence() > event.getSequence());
+        watcher.call.cancel("done", null);
+
+        // changes committed while the client was away are replayed
+        OrderReply missed = orders.create(newOrder());
+        Watcher resumed = watch(OrderWatchRequest.newBuilder().setAfterSequence(update.getSequence()).build(),
+                Integer.MAX_VALUE);
+        assertEquals(missed, resumed.next().getOrder());
+
+        OrderReply live = orders.create(newOrder());
+        assertEquals(live, resumed.next().getOrder());
+    }
+
+    @Test
+    void resumesAfterChangesOfConcurrentWriters() throws Exception {
+        final int perWriter = 20;
+        Watcher watcher = watch(OrderWatchRequest.getDefaultInstance(), Integer.MAX_VALUE);
+        OrdersGrpc.OrdersBlockingStub orders = OrdersGrpc.newBlockingStub(channel);
+
+        ExecutorService writers = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<?>> done = new ArrayList<>();
+            for (int w = 0; w < 2; ++w) {
+                done.add(writers.submit(() -> {
+                    for (int i = 0; i < perWriter; ++i) {
+                        orders.create(newOrder());
+                    }
+                }));
+            }
+            for (Future<?> f : done) {
+                f.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            writers.shutdownNow();
+        }
+
+        // events come in the order of their sequences, whichever writer
+        // committed them
+        List<OrderEvent> received = new ArrayList<>();
+        for (int i = 0; i < 2 * perWriter; ++i) {
+            OrderEvent event = watcher.next();
+            if (!received.isEmpty()) {
+                assertTrue(event.getSequence() > received.get(received.size() - 1).getSequence());
+            }
+            received.add(event);
+        }
+        watcher.call.cancel("done", null);
+
+        Watcher resumed = watch(OrderWatchRequest.newBuilder()
+                .setAfterSequence(received.get(perWriter - 1).getSequence())
+                .build(), Integer.MAX_VALUE);
+        for (int i = perWriter; i < 2 * perWriter; ++i) {
+            assertEquals(received.get(i), resumed.next());
+        }
+        assertNull(resumed.events.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void holdsChangesCommittedBeforeChangesWithLowerSequences() throws Exception {
+        Watcher watcher = watch(OrderWatchRequest.getDefaultInstance(), Integer.MAX_VALUE);
+        CountDownLatch committing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        try {
+            // the first writer gets the lower sequence and stalls in its commit
+            Future<OrderEvent> slow = writer.submit(() -> {
+                try (Session session = HibernateUtil.getSession()) {
+                    session.beginTransaction();
+                    session.getTransaction().registerSynchronization(new Synchronization() {
+                        @Override
+                        public void beforeCompletion() {
+                            committing.countDown();
+                            try {
+                                release.await(10, TimeUnit.SECONDS);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                        }
+
+                        @Override
+                        public void afterCompletion(int status) {
+                        }
+                    });
+                    return feed.commit(session, OrderEvent.newBuilder().setId(-1).setUser(USER));
+                }
+            });
+            assertTrue(committing.await(10, TimeUnit.SECONDS));
+
+            OrderEvent fast;
+            try (Session session = HibernateUtil.getSession()) {
+                session.beginTransaction();
+                fast = feed.commit(session, OrderEvent.newBuilder().setId(-2).setUser(USER));
+            }
+            assertNull(watcher.events.poll(100, TimeUnit.MILLISECONDS));
+
+            release.countDown();
+            OrderEvent first = slow.get(10, TimeUnit.SECONDS);
+            assertTrue(first.getSequence() < fast.getSequence());
+            assertEquals(first, watcher.next());
+            assertEquals(fast, watcher.next());
+        } finally {
+            writer.shutdownNow();
+        }
+    }
+
+    @Test
+    void hidesNewUserOfOrderMovedAway() throws InterruptedException {
+        Watcher watcher = watch(OrderWatchRequest.getDefaultInstance(), Integer.MAX_VALUE);
+        OrdersGrpc.OrdersBlockingStub orders = OrdersGrpc.newBlockingStub(channel);
+
+        OrderReply created = orders.create(newOrder());
+        assertEquals(OrderEvent.Type.CREATED, watcher.next().getType());
+
+        orders.update(created.getData().toBuilder().setUser(Int32Value.of(OTHER)).build());
+        OrderEvent moved = watcher.next();
+        assertEquals(OrderEvent.Type.DELETED, moved.getType());
+        assertEquals(created.getData().getId(), moved.getId());
+        assertEquals(USER, moved.getUser());
+        assertFalse(moved.hasPreviousUser());
+        assertFalse(moved.hasOrder());
+        assertEquals(0, moved.getVersion());
+
+        // replayed events are hidden the same way
+        watcher.call.cancel("done", null);
+        Watcher resumed = watch(OrderWatchRequest.newBuilder().setAfterSequence(moved.getSequence() - 1).build(),
+                Integer.MAX_VALUE);
+        OrderEvent replayed = resumed.next();
+        assertEquals(moved, replayed);
+    }
+
+    @Test
+    void closesWatcherLaggingBehind() throws InterruptedException {
+        Watcher watcher = watch(OrderWatchRequest.newBuilder()
+                .setOverflow(OrderWatchRequest.Overflow.CLOSE)
+                .build(), 0);
+        OrdersGrpc.OrdersBlockingStub orders = OrdersGrpc.newBlockingStub(channel);
+        for (int i = 0; i < CAPACITY + 1; ++i) {
+            orders.create(newOrder());
+        }
+
+        watcher.call.request(1);
+        Throwable error = watcher.errors.poll(10, TimeUnit.SECONDS);
+        assertEquals(Status.Code.RESOURCE_EXHAUSTED, Status.fromThrowable(error).getCode());
+        assertEquals(1, feed.getOverflowCount());
+    }
+
+    @Test
+    void replaysChangesWatcherLaggedBehind() throws InterruptedException {
+        Watcher watcher = watch(OrderWatchRequest.getDefaultInstance(), 0);
+        OrdersGrpc.OrdersBlockingStub orders = OrdersGrpc.newBlockingStub(channel);
+        OrderReply first = orders.create(newOrder());
+        for (int i = 0; i < CAPACITY + 1; ++i) {
+            orders.create(newOrder());
+        }
+
+        watcher.call.request(CAPACITY + 2);
+        assertEquals(first, watcher.next().getOrder());
+        long sequence = 0;
+        for (int i = 0; i < CAPACITY + 1; ++i) {
+            OrderEvent event = watcher.next();
+            assertTrue(event.getSequence() > sequence);
+            sequence = event.getSequence();
+        }
+        assertEquals(1, feed.getOverflowCount());
+    }
+
+    private static OrderRequest newOrder() {
+        return OrderRequest.newBuilder()
+                .setCustomer("Watched customer")
+                .setAddress(AddressReply.newBuilder().setStreet("Street").setZipCode("12345").setCountryCode("US"))
+                .addOrderProductList(ProductReply.newBuilder().setId(1))
+                .build();
+    }
+
+    private Watcher watch(OrderWatchRequest req, int initialRequests) throws InterruptedException {
+        Watcher watcher = new Watcher(initialRequests);
+        OrdersGrpc.newStub(channel).watch(req, watcher);
+        // the subscription is made when the call starts
+        while (feed.getSubscriptionCount() == 0) {
+            Thread.sleep(10);
+        }
+        return watcher;
+    }
+
+    private final class Watcher implements ClientResponseObserver<OrderWatchRequest, OrderEvent> {
+        final BlockingQueue<OrderEvent> events = new LinkedBlockingQueue<>();
+        final BlockingQueue<Throwable> errors = new LinkedBlockingQueue<>();
+        private final int initialRequests;
+        ClientCallStreamObserver<OrderWatchRequest> call;
+
+        Watcher(int initialRequests) {
+            this.initialRequests = initialRequests;
+        }
+
+        OrderEvent next() throws InterruptedException {
+            OrderEvent event = events.poll(10, TimeUnit.SECONDS);
+            assertNotNull(event, "No event received");
+            return event;
+        }
+
+        @Override
+        public void beforeStart(ClientCallStreamObserver<OrderWatchRequest> requestStream) {
+            call = requestStream;
+            requestStream.disableAutoRequestWithInitial(initialRequests);
+        }
+
+        @Override
+        public void onNext(OrderEvent value) {
+            events.add(value);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            errors.add(t);
+        }
+
+        @Override
+        public void onCompleted() {
+        }
+    }
+}
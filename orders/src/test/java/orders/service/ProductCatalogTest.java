@@ -0,0 +1,50 @@
+package orders.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import orders.ProductListReply;
+import orders.ProductReply;
+
+class ProductCatalogTest {
+
+    @Test
+    void refreshKeepsVersionOfUnchangedProducts() {
+        ProductCatalog catalog = new ProductCatalog();
+        ProductCatalog.Snapshot loaded = catalog.refresh();
+        assertEquals(1, loaded.getVersion());
+        assertTrue(loaded.getList().getProductListCount() > 0);
+        ProductReply first = loaded.getList().getProductList(0);
+        assertEquals(first, loaded.get(first.getId()));
+
+        ProductCatalog.Snapshot reloaded = catalog.refresh();
+        assertEquals(1, reloaded.getVersion());
+        assertSame(loaded.getList(), reloaded.getList());
+        assertSame(reloaded, catalog.get());
+    }
+
+    @Test
+    void laterLoadIsNotReplacedByEarlierOne() {
+        ProductListReply older = list(1, "Notebook");
+        ProductListReply newer = list(1, "Laptop");
+
+        ProductCatalog catalog = new ProductCatalog();
+        // the second load finishes first
+        assertEquals(1, catalog.install(2, newer).getVersion());
+        ProductCatalog.Snapshot kept = catalog.install(1, older);
+        assertEquals(1, kept.getVersion());
+        assertEquals("Laptop", catalog.get().get(1).getName());
+
+        // an unchanged list keeps the version, yet marks the later load
+        assertEquals(1, catalog.install(3, newer).getVersion());
+        assertEquals(newer, catalog.install(2, older).getList());
+        assertEquals(2, catalog.install(4, older).getVersion());
+    }
+
+    private static ProductListReply list(int id, String name) {
+        return ProductListReply.newBuilder()
+                .addProductList(ProductReply.newBuilder().setId(id).setName(name))
+                .build();
+    }
+}
@@ -0,0 +1,96 @@
+package orders.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class SingleFlightTest {
+    private static final int CALLERS = 8;
+
+    private final SingleFlight<String, String> flight = new SingleFlight<>("Test");
+    private final ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+
+    @AfterEach
+    void stop() throws InterruptedException {
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void concurrentCallersShareOneLoad() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+
+        List<Future<String>> results = new ArrayList<>();
+        results.add(executor.submit(() -> flight.load("key", () -> {
+            loads.incrementAndGet();
+            loading.countDown();
+            await(release);
+            return "value";
+        })));
+        assertTrue(loading.await(10, TimeUnit.SECONDS));
+        for (int i = 1; i < CALLERS; ++i) {
+            results.add(executor.submit(() -> flight.load("key", () -> {
+                loads.incrementAndGet();
+                return "other";
+            })));
+        }
+        // the rest of callers wait for the load
+        while (flight.getSharedCount() < CALLERS - 1) {
+            Thread.sleep(10);
+        }
+        release.countDown();
+
+        for (Future<String> result : results) {
+            assertEquals("value", result.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1, loads.get());
+        assertEquals(1, flight.getLoadCount());
+        assertEquals(0, flight.getInFlightCount());
+
+        // nothing is cached
+        assertEquals("next", flight.load("key", () -> "next"));
+        assertEquals(2, flight.getLoadCount());
+    }
+
+    @Test
+    void callersShareFailure() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> leader = executor.submit(() -> flight.load("key", () -> {
+            loading.countDown();
+            await(release);
+            throw new IllegalStateException("failed");
+        }));
+        assertTrue(loading.await(10, TimeUnit.SECONDS));
+        Future<String> follower = executor.submit(() -> flight.load("key", () -> "value"));
+        while (flight.getSharedCount() < 1) {
+            Thread.sleep(10);
+        }
+        release.countDown();
+
+        for (Future<String> result : List.of(leader, follower)) {
+            Exception e = assertThrows(Exception.class, () -> result.get(10, TimeUnit.SECONDS));
+            assertInstanceOf(IllegalStateException.class, e.getCause());
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}